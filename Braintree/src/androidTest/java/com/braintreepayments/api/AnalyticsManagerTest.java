@@ -6,7 +6,9 @@ import android.provider.Settings.Secure;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.braintreepayments.api.AnalyticsManager.AnalyticsRequest;
 import com.braintreepayments.api.exceptions.InvalidArgumentException;
+import com.braintreepayments.api.exceptions.ServerException;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
 import com.braintreepayments.api.internal.BraintreeHttpClient;
 import com.braintreepayments.api.models.AnalyticsConfiguration;
@@ -17,27 +19,41 @@ import com.braintreepayments.api.test.TestActivity;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import static android.support.test.InstrumentationRegistry.getInstrumentation;
 import static android.support.test.InstrumentationRegistry.getTargetContext;
+import static com.braintreepayments.api.BraintreeFragmentTestUtils.clearAnalyticsEvents;
 import static com.braintreepayments.api.BraintreeFragmentTestUtils.getMockFragment;
+import static com.braintreepayments.api.BraintreeFragmentTestUtils.waitForAnalytics;
 import static com.braintreepayments.api.DeviceMetadata.getBraintreeSharedPreferences;
+import static com.braintreepayments.api.internal.BraintreeHttpClientTestUtils.clientWithExpectedResponse;
 import static com.braintreepayments.testutils.FixturesHelper.stringFromFixture;
 import static com.braintreepayments.testutils.TestTokenizationKey.TOKENIZATION_KEY;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
-import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -57,6 +73,11 @@ public class AnalyticsManagerTest {
     private BraintreeFragment mFragment;
     private BraintreeHttpClient mHttpClient;
 
+    @Before
+    public void clearEvents() {
+        clearAnalyticsEvents();
+    }
+
     @Test(timeout = 1000)
     public void sendEvent_worksWithTokenizationKey() throws InvalidArgumentException {
         AnalyticsConfiguration analyticsConfiguration = mock(AnalyticsConfiguration.class);
@@ -70,9 +91,10 @@ public class AnalyticsManagerTest {
 
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
 
         verify(mHttpClient).post(anyString(), contains("some-interesting-event"),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
     }
 
     @Test(timeout = 1000)
@@ -87,9 +109,10 @@ public class AnalyticsManagerTest {
 
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
 
         verify(mHttpClient, never()).post(anyString(), anyString(),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
     }
 
     @Test(timeout = 1000)
@@ -97,9 +120,10 @@ public class AnalyticsManagerTest {
         setup();
 
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        waitForAnalytics();
 
         verify(mHttpClient, never()).post(anyString(), anyString(),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
     }
 
     @Test(timeout = 1000)
@@ -111,10 +135,11 @@ public class AnalyticsManagerTest {
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        waitForAnalytics();
 
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
         verify(mHttpClient).post(anyString(), captor.capture(),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
         JSONObject json = new JSONObject(captor.getValue());
         assertEquals(5, json.getJSONArray("analytics").length());
         assertEquals("android.custom.some-interesting-event",
@@ -135,9 +160,10 @@ public class AnalyticsManagerTest {
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        waitForAnalytics();
 
         verify(mHttpClient, times(2))
-                .post(anyString(), anyString(), isNull(HttpResponseCallback.class));
+                .post(anyString(), anyString(), any(HttpResponseCallback.class));
     }
 
     @Test(timeout = 1000)
@@ -145,9 +171,10 @@ public class AnalyticsManagerTest {
         setup();
 
         AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
 
         verify(mHttpClient, never()).post(anyString(), anyString(),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
     }
 
     @Test(timeout = 1000)
@@ -156,8 +183,9 @@ public class AnalyticsManagerTest {
 
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
 
-        verify(mHttpClient).post(anyString(), anyString(), isNull(HttpResponseCallback.class));
+        verify(mHttpClient).post(anyString(), anyString(), any(HttpResponseCallback.class));
     }
 
     @Test(timeout = 1000)
@@ -232,15 +260,111 @@ public class AnalyticsManagerTest {
         assertEquals(1, sessionIdsSent.size());
     }
 
+    @Test(timeout = 1000)
+    public void sendEvent_writesEventToJournal() throws JSONException {
+        setup();
+
+        AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        waitForAnalytics();
+
+        List<AnalyticsRequest> events =
+                AnalyticsJournal.getInstance(getTargetContext()).getEvents();
+        assertEquals(1, events.size());
+        assertEquals("android.custom.some-interesting-event", events.get(0).getEvent());
+    }
+
+    @Test(timeout = 1000)
+    public void flushEvents_removesEventsFromJournalWhenSent() throws JSONException {
+        setup();
+        respondToAnalytics(null);
+
+        AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
+
+        assertTrue(AnalyticsJournal.getInstance(getTargetContext()).getEvents().isEmpty());
+    }
+
+    @Test(timeout = 1000)
+    public void flushEvents_keepsEventsInJournalAndSendsThemAgainWhenSendingFails()
+            throws JSONException {
+        setup();
+        respondToAnalytics(new ServerException("Server error"));
+
+        AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
+
+        assertEquals(1, AnalyticsJournal.getInstance(getTargetContext()).getEvents().size());
+
+        AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
+
+        verify(mHttpClient, times(2)).post(anyString(), contains("some-interesting-event"),
+                any(HttpResponseCallback.class));
+    }
+
+    @Test(timeout = 1000)
+    public void flushEvents_sendsEventsAgainWhenFragmentIsDestroyedWhileSending()
+            throws Exception {
+        setup();
+        AnalyticsConfiguration analyticsConfiguration = mock(AnalyticsConfiguration.class);
+        when(analyticsConfiguration.isEnabled()).thenReturn(true);
+        when(analyticsConfiguration.getUrl()).thenReturn("https://example.com/analytics");
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getAnalytics()).thenReturn(analyticsConfiguration);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        Future future = mock(Future.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        mHttpClient = clientWithExpectedResponse(422, "{}");
+        mHttpClient.setThreadPool(threadPool);
+        mFragment.mHttpClient = mHttpClient;
+        when(mFragment.getHttpClient()).thenReturn(mHttpClient);
+        mFragment.setConfiguration(configuration);
+
+        AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
+        AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(threadPool).submit(captor.capture());
+
+        mFragment.onDestroy();
+        verify(future, never()).cancel(anyBoolean());
+        captor.getValue().run();
+        getInstrumentation().waitForIdleSync();
+        waitForAnalytics();
+
+        AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
+
+        verify(mHttpClient, times(2)).post(anyString(), contains("some-interesting-event"),
+                any(HttpResponseCallback.class));
+    }
+
+    @Test(timeout = 1000)
+    public void flushEvents_dropsEventsRecordedWithAnotherAuthorization() throws JSONException {
+        setup();
+        AnalyticsJournal.getInstance(getTargetContext()).append(new AnalyticsRequest("custom",
+                "some-interesting-event", 1000, "session", "https://example.com/configuration"));
+
+        AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
+
+        verify(mHttpClient, never()).post(anyString(), anyString(),
+                any(HttpResponseCallback.class));
+        assertTrue(AnalyticsJournal.getInstance(getTargetContext()).getEvents().isEmpty());
+    }
+
     @Test(timeout = 1000)
     public void newRequest_sendsCorrectMetaData() throws JSONException {
         setup();
 
         AnalyticsManager.sendRequest(mFragment, "custom", "some-interesting-event");
         AnalyticsManager.flushEvents(mFragment);
+        waitForAnalytics();
 
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
-        verify(mHttpClient).post(anyString(), captor.capture(), isNull(HttpResponseCallback.class));
+        verify(mHttpClient).post(anyString(), captor.capture(), any(HttpResponseCallback.class));
         JSONObject json = new JSONObject(captor.getValue()).getJSONObject("_meta");
         assertEquals("Android", json.getString("platform"));
         assertEquals(Integer.toString(VERSION.SDK_INT), json.getString("platformVersion"));
@@ -267,6 +391,22 @@ public class AnalyticsManagerTest {
         mFragment = generateFragment();
     }
 
+    private void respondToAnalytics(final Exception exception) {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                HttpResponseCallback callback =
+                        (HttpResponseCallback) invocation.getArguments()[2];
+                if (exception == null) {
+                    callback.success("");
+                } else {
+                    callback.failure(exception);
+                }
+                return null;
+            }
+        }).when(mHttpClient).post(anyString(), anyString(), any(HttpResponseCallback.class));
+    }
+
     private BraintreeFragment generateFragment() {
         AnalyticsConfiguration analyticsConfiguration = mock(AnalyticsConfiguration.class);
         when(analyticsConfiguration.isEnabled()).thenReturn(true);
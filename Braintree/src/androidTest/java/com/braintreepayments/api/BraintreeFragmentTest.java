@@ -6,18 +6,21 @@ import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.MediumTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.braintreepayments.api.AnalyticsManager.AnalyticsRequest;
 import com.braintreepayments.api.exceptions.ConfigurationException;
 import com.braintreepayments.api.exceptions.ErrorWithResponse;
 import com.braintreepayments.api.exceptions.InvalidArgumentException;
 import com.braintreepayments.api.exceptions.ServerException;
 import com.braintreepayments.api.interfaces.BraintreeErrorListener;
 import com.braintreepayments.api.interfaces.BraintreeResponseListener;
+import com.braintreepayments.api.interfaces.ConfigurationChangedListener;
 import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
 import com.braintreepayments.api.interfaces.PaymentMethodNonceCreatedListener;
 import com.braintreepayments.api.interfaces.PaymentMethodNoncesUpdatedListener;
 import com.braintreepayments.api.interfaces.QueuedCallback;
 import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.internal.Deadline;
 import com.braintreepayments.api.models.AnalyticsConfiguration;
 import com.braintreepayments.api.models.Authorization;
 import com.braintreepayments.api.models.CardNonce;
@@ -40,21 +43,26 @@ import org.mockito.ArgumentCaptor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.support.test.InstrumentationRegistry.getInstrumentation;
+import static android.support.test.InstrumentationRegistry.getTargetContext;
+import static com.braintreepayments.api.BraintreeFragmentTestUtils.clearAnalyticsEvents;
 import static com.braintreepayments.api.BraintreeFragmentTestUtils.getFragment;
 import static com.braintreepayments.api.BraintreeFragmentTestUtils.getMockFragment;
+import static com.braintreepayments.api.BraintreeFragmentTestUtils.waitForAnalytics;
 import static com.braintreepayments.testutils.FixturesHelper.stringFromFixture;
 import static com.braintreepayments.testutils.TestTokenizationKey.TOKENIZATION_KEY;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -76,6 +84,7 @@ public class BraintreeFragmentTest {
         mActivity = mActivityTestRule.getActivity();
         mClientToken = new TestClientTokenBuilder().build();
         mCountDownLatch = new CountDownLatch(1);
+        clearAnalyticsEvents();
     }
 
     @Test(timeout = 1000)
@@ -135,13 +144,16 @@ public class BraintreeFragmentTest {
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
             public void onConfigurationFetched(Configuration configuration) {
-                assertEquals(1, AnalyticsManager.sRequestQueue.size());
-                assertEquals("android.custom.started.client-key",
-                        AnalyticsManager.sRequestQueue.get(0).getEvent());
                 mCountDownLatch.countDown();
             }
         });
         mCountDownLatch.await();
+        waitForAnalytics();
+
+        List<AnalyticsRequest> events =
+                AnalyticsJournal.getInstance(getTargetContext()).getEvents();
+        assertEquals(1, events.size());
+        assertEquals("android.custom.started.client-key", events.get(0).getEvent());
     }
 
     @Test(timeout = 1000)
@@ -151,13 +163,16 @@ public class BraintreeFragmentTest {
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
             public void onConfigurationFetched(Configuration configuration) {
-                assertEquals(1, AnalyticsManager.sRequestQueue.size());
-                assertEquals("android.custom.started.client-token",
-                        AnalyticsManager.sRequestQueue.get(0).getEvent());
                 mCountDownLatch.countDown();
             }
         });
         mCountDownLatch.await();
+        waitForAnalytics();
+
+        List<AnalyticsRequest> events =
+                AnalyticsJournal.getInstance(getTargetContext()).getEvents();
+        assertEquals(1, events.size());
+        assertEquals("android.custom.started.client-token", events.get(0).getEvent());
     }
 
     @Test(timeout = 10000)
@@ -237,6 +252,37 @@ public class BraintreeFragmentTest {
         assertTrue(bundle.getParcelableArrayList(BraintreeFragment.EXTRA_CACHED_PAYMENT_METHOD_NONCES).isEmpty());
         assertFalse(bundle.getBoolean(BraintreeFragment.EXTRA_FETCHED_PAYMENT_METHOD_NONCES));
         assertFalse(bundle.getBoolean(BraintreeFragment.EXTRA_BROWSER_SWITCHING));
+        assertFalse(bundle.containsKey(BraintreeFragment.EXTRA_BROWSER_SWITCH_DEADLINE));
+    }
+
+    @Test(timeout = 1000)
+    @SmallTest
+    public void onSaveInstanceState_savesBrowserSwitchDeadline() {
+        BraintreeFragment fragment = getFragment(mActivity, mClientToken);
+        fragment.setBrowserSwitchDeadline(Deadline.after(1, TimeUnit.MINUTES));
+        Bundle bundle = new Bundle();
+
+        fragment.onSaveInstanceState(bundle);
+
+        long remainingMillis = bundle.getLong(BraintreeFragment.EXTRA_BROWSER_SWITCH_DEADLINE);
+        assertTrue(remainingMillis > 0);
+        assertTrue(remainingMillis <= TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test(timeout = 1000)
+    @SmallTest
+    public void getBrowserSwitchDeadline_resumesTheRemainingTime() {
+        BraintreeFragment fragment = getFragment(mActivity, mClientToken);
+        assertNull(fragment.getBrowserSwitchDeadline());
+
+        fragment.setBrowserSwitchDeadline(Deadline.after(1, TimeUnit.MINUTES));
+        Deadline deadline = fragment.getBrowserSwitchDeadline();
+
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.getRemainingMillis() <= TimeUnit.MINUTES.toMillis(1));
+
+        fragment.setBrowserSwitchDeadline(null);
+        assertNull(fragment.getBrowserSwitchDeadline());
     }
 
     @Test(timeout = 1000)
@@ -280,6 +326,18 @@ public class BraintreeFragmentTest {
         assertNotNull(fragment.getHttpClient());
     }
 
+    @Test(timeout = 1000)
+    @SmallTest
+    public void onDestroy_cancelsOutstandingRequests() {
+        BraintreeFragment fragment = getFragment(mActivity, mClientToken);
+        BraintreeHttpClient httpClient = mock(BraintreeHttpClient.class);
+        fragment.mHttpClient = httpClient;
+
+        fragment.onDestroy();
+
+        verify(httpClient).cancelAll();
+    }
+
     @Test(timeout = 1000)
     @SmallTest
     public void getGoogleApiClient_returnsGoogleApiClient() throws InterruptedException {
@@ -364,6 +422,24 @@ public class BraintreeFragmentTest {
         mCountDownLatch.await();
     }
 
+    @Test(timeout = 1000)
+    @SmallTest
+    public void addListener_flushesConfigurationChangedCallback() throws InterruptedException {
+        BraintreeFragment fragment = getFragment(mActivity, mClientToken);
+        final Configuration configuration = mock(Configuration.class);
+        fragment.postConfigurationChangedCallback(configuration);
+
+        fragment.addListener(new ConfigurationChangedListener() {
+            @Override
+            public void onConfigurationChanged(Configuration changedConfiguration) {
+                assertEquals(configuration, changedConfiguration);
+                mCountDownLatch.countDown();
+            }
+        });
+
+        mCountDownLatch.await();
+    }
+
     @Test(timeout = 1000)
     @SmallTest
     public void removeListener_noPaymentMethodNonceCreatedReceived() {
@@ -667,10 +743,11 @@ public class BraintreeFragmentTest {
 
         fragment.sendAnalyticsEvent("event");
         fragment.onPause();
+        waitForAnalytics();
 
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
         verify(httpClient).post(eq("analytics_url"), captor.capture(),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
         assertTrue(new JSONObject(captor.getValue()).getJSONArray("analytics").length() < 5);
     }
 }
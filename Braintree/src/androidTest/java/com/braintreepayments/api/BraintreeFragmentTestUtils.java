@@ -3,6 +3,7 @@ package com.braintreepayments.api;
 import android.app.Activity;
 
 import com.braintreepayments.api.exceptions.InvalidArgumentException;
+import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.PaymentMethodNonceCreatedListener;
 import com.braintreepayments.api.models.Authorization;
 import com.braintreepayments.api.models.CardBuilder;
@@ -13,6 +14,7 @@ import com.braintreepayments.api.models.PaymentMethodNonce;
 import org.json.JSONException;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 
 import static android.support.test.InstrumentationRegistry.getInstrumentation;
 import static android.support.test.InstrumentationRegistry.getTargetContext;
@@ -77,6 +79,7 @@ public class BraintreeFragmentTestUtils {
         try {
             Authorization authorization = Authorization.fromString(authorizationString);
             writeMockConfiguration(authorization.getConfigUrl(), configuration);
+            ConfigurationCache.getInstance().clearMemoryCache();
 
             BraintreeFragment fragment = spy(BraintreeFragment.newInstance(activity, authorizationString));
             when(fragment.getApplicationContext()).thenReturn(getTargetContext());
@@ -109,12 +112,17 @@ public class BraintreeFragmentTestUtils {
             if (configurationString != null) {
                 Authorization authorization = Authorization.fromString(authorizationString);
                 writeMockConfiguration(authorization.getConfigUrl(), configurationString);
+                ConfigurationCache.getInstance().clearMemoryCache();
             }
             fragment = BraintreeFragment.newInstance(activity, authorizationString);
 
             getInstrumentation().waitForIdleSync();
             waitForFragmentTransaction(activity);
 
+            if (configurationString != null) {
+                waitForConfiguration(fragment);
+            }
+
             return fragment;
         } catch (InterruptedException | InvalidArgumentException e) {
             fail(e.getMessage());
@@ -122,6 +130,62 @@ public class BraintreeFragmentTestUtils {
         }
     }
 
+    /**
+     * Wait for the {@link BraintreeFragment} to load its {@link Configuration}, which is read from
+     * the cache on a background thread.
+     *
+     * @param fragment
+     */
+    private static void waitForConfiguration(final BraintreeFragment fragment)
+            throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                fragment.waitForConfiguration(new ConfigurationListener() {
+                    @Override
+                    public void onConfigurationFetched(Configuration configuration) {
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+
+        latch.await();
+    }
+
+    /**
+     * Remove all analytics events from the {@link AnalyticsJournal}.
+     */
+    public static void clearAnalyticsEvents() {
+        AnalyticsManager.sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                AnalyticsJournal.getInstance(getTargetContext()).clear();
+            }
+        });
+        waitForAnalytics();
+    }
+
+    /**
+     * Wait for analytics events that have been recorded or flushed to be written to the
+     * {@link AnalyticsJournal} and handed to the http client, and for the journal to be updated
+     * with the responses the http client returned synchronously.
+     */
+    public static void waitForAnalytics() {
+        try {
+            // responses queue their journal updates while the first task is waiting
+            for (int i = 0; i < 2; i++) {
+                AnalyticsManager.sExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {}
+                }).get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Tokenize a card and return the {@link CardNonce} instance.
      *
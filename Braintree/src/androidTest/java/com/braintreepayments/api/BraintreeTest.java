@@ -0,0 +1,84 @@
+package com.braintreepayments.api;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.braintreepayments.api.exceptions.InvalidArgumentException;
+import com.braintreepayments.api.interfaces.BraintreeResponseListener;
+import com.braintreepayments.api.interfaces.ConfigurationListener;
+import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.models.Authorization;
+import com.braintreepayments.api.models.Configuration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+
+import static android.support.test.InstrumentationRegistry.getTargetContext;
+import static com.braintreepayments.api.DeviceMetadata.getBraintreeSharedPreferences;
+import static com.braintreepayments.testutils.FixturesHelper.stringFromFixture;
+import static com.braintreepayments.testutils.SharedPreferencesHelper.writeMockConfiguration;
+import static com.braintreepayments.testutils.TestTokenizationKey.TOKENIZATION_KEY;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class BraintreeTest {
+
+    @Before
+    public void setup() {
+        getBraintreeSharedPreferences(getTargetContext()).edit().clear().commit();
+        ConfigurationCache.getInstance().clear(getTargetContext());
+    }
+
+    @After
+    public void teardown() {
+        getBraintreeSharedPreferences(getTargetContext()).edit().clear().commit();
+    }
+
+    @Test(timeout = 1000)
+    public void prefetch_loadsConfigurationIntoMemorySoFragmentsDoNotWait()
+            throws InvalidArgumentException, InterruptedException {
+        writeMockConfiguration(Authorization.fromString(TOKENIZATION_KEY).getConfigUrl(),
+                stringFromFixture("configuration.json"));
+
+        Braintree.prefetchSynchronously(getTargetContext(), TOKENIZATION_KEY);
+
+        ConfigurationCache cache = ConfigurationCache.getInstance();
+        long memoryHits = cache.getMemoryHitCount();
+        long diskHits = cache.getDiskHitCount();
+        BraintreeFragment fragment = mock(BraintreeFragment.class);
+        when(fragment.getAuthorization()).thenReturn(Authorization.fromString(TOKENIZATION_KEY));
+        when(fragment.getApplicationContext()).thenReturn(getTargetContext());
+        when(fragment.getHttpClient()).thenReturn(mock(BraintreeHttpClient.class));
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        ConfigurationManager.getConfiguration(fragment, new ConfigurationListener() {
+            @Override
+            public void onConfigurationFetched(Configuration configuration) {
+                assertEquals(stringFromFixture("configuration.json"), configuration.toJson());
+                latch.countDown();
+            }
+        }, new BraintreeResponseListener<Exception>() {
+            @Override
+            public void onResponse(Exception e) {
+                fail(e.getMessage());
+            }
+        });
+
+        latch.await();
+        assertEquals(memoryHits + 1, cache.getMemoryHitCount());
+        assertEquals(diskHits, cache.getDiskHitCount());
+    }
+
+    @Test(timeout = 1000)
+    public void prefetch_ignoresInvalidAuthorization() {
+        Braintree.prefetchSynchronously(getTargetContext(), "not an authorization");
+    }
+}
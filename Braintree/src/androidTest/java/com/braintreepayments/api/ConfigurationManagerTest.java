@@ -1,6 +1,8 @@
 package com.braintreepayments.api;
 
 import android.net.Uri;
+import android.os.Looper;
+import android.os.StrictMode;
 import android.os.SystemClock;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -11,7 +13,9 @@ import com.braintreepayments.api.exceptions.UnexpectedException;
 import com.braintreepayments.api.interfaces.BraintreeResponseListener;
 import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
 import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.internal.HttpCacheHeaders;
 import com.braintreepayments.api.models.Authorization;
 import com.braintreepayments.api.models.Configuration;
 import com.braintreepayments.testutils.TestTokenizationKey;
@@ -20,18 +24,34 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static android.support.test.InstrumentationRegistry.getInstrumentation;
 import static android.support.test.InstrumentationRegistry.getTargetContext;
 import static com.braintreepayments.api.DeviceMetadata.getBraintreeSharedPreferences;
 import static com.braintreepayments.testutils.FixturesHelper.stringFromFixture;
 import static com.braintreepayments.testutils.SharedPreferencesHelper.writeMockConfiguration;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(AndroidJUnit4.class)
@@ -44,11 +64,13 @@ public class ConfigurationManagerTest {
     public void setup() throws InvalidArgumentException {
         getBraintreeSharedPreferences(getTargetContext()).edit().clear().commit();
         ConfigurationManager.sFetchingConfiguration = false;
+        ConfigurationCache.getInstance().clear(getTargetContext());
         mTokenizationKey = Authorization.fromString(TestTokenizationKey.TOKENIZATION_KEY);
     }
 
     @After
     public void teardown() {
+        ConfigurationManager.setMaxStaleness(0);
         getBraintreeSharedPreferences(getTargetContext()).edit().clear().commit();
     }
 
@@ -104,6 +126,41 @@ public class ConfigurationManagerTest {
         latch.await();
     }
 
+    @Test(timeout = 1000)
+    public void isFetchingConfiguration_isFalseWhenFetchIsCancelled() throws InterruptedException {
+        final CountDownLatch submitLatch = new CountDownLatch(1);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        when(threadPool.submit(any(Runnable.class))).thenAnswer(new Answer<Future>() {
+            @Override
+            public Future answer(InvocationOnMock invocation) throws Throwable {
+                submitLatch.countDown();
+                return mock(Future.class);
+            }
+        });
+        BraintreeHttpClient httpClient = new BraintreeHttpClient(mTokenizationKey);
+        httpClient.setThreadPool(threadPool);
+        BraintreeFragment fragment = getMockFragment();
+        when(fragment.getHttpClient()).thenReturn(httpClient);
+
+        ConfigurationManager.getConfiguration(fragment, new ConfigurationListener() {
+            @Override
+            public void onConfigurationFetched(Configuration configuration) {
+                fail("Cancelled fetch called the success listener");
+            }
+        }, new BraintreeResponseListener<Exception>() {
+            @Override
+            public void onResponse(Exception e) {
+                fail("Cancelled fetch called the error listener");
+            }
+        });
+        submitLatch.await();
+        assertTrue(ConfigurationManager.isFetchingConfiguration());
+
+        httpClient.cancelAll();
+
+        assertFalse(ConfigurationManager.isFetchingConfiguration());
+    }
+
     @Test(timeout = 1000)
     public void isFetchingConfiguration_isFalseInErrorCallback() throws InterruptedException {
         BraintreeFragment fragment = getMockFragment();
@@ -248,14 +305,16 @@ public class ConfigurationManagerTest {
         ConfigurationManager.getConfiguration(fragment, new ConfigurationListener() {
             @Override
             public void onConfigurationFetched(Configuration configuration) {
-                String key = Uri.parse(mTokenizationKey.getConfigUrl()).buildUpon()
-                        .appendQueryParameter("configVersion", "3").build().toString();
-                key = Base64.encodeToString(key.getBytes(), 0);
-
-                assertEquals(stringFromFixture("configuration.json"), getBraintreeSharedPreferences(getTargetContext()).getString(key, ""));
-                assertTrue(System.currentTimeMillis() -
-                        getBraintreeSharedPreferences(getTargetContext())
-                                .getLong(key + "_timestamp", 0) < 1000);
+                String configUrl = getVersionedConfigUrl();
+                ConfigurationSnapshot snapshot = ConfigurationSnapshot.read(
+                        ConfigurationCache.getSnapshotFile(getTargetContext(), configUrl),
+                        configUrl);
+
+                assertNotNull(snapshot);
+                assertEquals(stringFromFixture("configuration.json"),
+                        snapshot.getConfiguration().toJson());
+                assertTrue(System.currentTimeMillis() - snapshot.getCachedAt() < 1000);
+                assertTrue(getBraintreeSharedPreferences(getTargetContext()).getAll().isEmpty());
                 latch.countDown();
             }
         }, new BraintreeResponseListener<Exception>() {
@@ -299,6 +358,319 @@ public class ConfigurationManagerTest {
         latch.await();
     }
 
+    @Test(timeout = 1000)
+    public void getConfiguration_getsConfigFromMemoryWithoutReadingDisk()
+            throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        stubConfigurationFromGateway(fragment, stringFromFixture("configuration.json"));
+        getConfiguration(fragment);
+        getBraintreeSharedPreferences(getTargetContext()).edit().clear().commit();
+        ConfigurationCache cache = ConfigurationCache.getInstance();
+        long memoryHits = cache.getMemoryHitCount();
+        long diskHits = cache.getDiskHitCount();
+        long diskMisses = cache.getDiskMissCount();
+        when(fragment.getHttpClient()).thenReturn(mock(BraintreeHttpClient.class));
+
+        assertEquals(stringFromFixture("configuration.json"), getConfiguration(fragment).toJson());
+        assertEquals(memoryHits + 1, cache.getMemoryHitCount());
+        assertEquals(diskHits, cache.getDiskHitCount());
+        assertEquals(diskMisses, cache.getDiskMissCount());
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_countsDiskHitsAndPopulatesMemoryOnMemoryMiss()
+            throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"));
+        ConfigurationCache cache = ConfigurationCache.getInstance();
+        long memoryHits = cache.getMemoryHitCount();
+        long memoryMisses = cache.getMemoryMissCount();
+        long diskHits = cache.getDiskHitCount();
+
+        getConfiguration(fragment);
+        getConfiguration(fragment);
+
+        assertEquals(memoryMisses + 1, cache.getMemoryMissCount());
+        assertEquals(diskHits + 1, cache.getDiskHitCount());
+        assertEquals(memoryHits + 1, cache.getMemoryHitCount());
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_doesNotUseExpiredConfigFromMemory() throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"),
+                System.currentTimeMillis() - (ConfigurationManager.TTL - 100));
+        getConfiguration(fragment);
+        SystemClock.sleep(200);
+        stubConfigurationFromGateway(fragment,
+                stringFromFixture("configuration_with_analytics.json"));
+
+        assertEquals(stringFromFixture("configuration_with_analytics.json"),
+                getConfiguration(fragment).toJson());
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_servesStaleConfigAndSwapsInRefreshedConfig()
+            throws InterruptedException {
+        ConfigurationManager.setMaxStaleness(ConfigurationManager.TTL);
+        BraintreeFragment fragment = getMockFragment();
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"),
+                System.currentTimeMillis() - (ConfigurationManager.TTL + 1));
+        stubConfigurationFromGateway(fragment,
+                stringFromFixture("configuration_with_analytics.json"));
+
+        assertEquals(stringFromFixture("configuration.json"), getConfiguration(fragment).toJson());
+
+        ArgumentCaptor<Configuration> captor = ArgumentCaptor.forClass(Configuration.class);
+        verify(fragment).setConfiguration(captor.capture());
+        assertEquals(stringFromFixture("configuration_with_analytics.json"),
+                captor.getValue().toJson());
+        verify(fragment).postConfigurationChangedCallback(captor.getValue());
+        assertEquals(stringFromFixture("configuration_with_analytics.json"),
+                getConfiguration(fragment).toJson());
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_doesNotPostChangedCallbackWhenRefreshedConfigIsTheSame()
+            throws InterruptedException {
+        ConfigurationManager.setMaxStaleness(ConfigurationManager.TTL);
+        BraintreeFragment fragment = getMockFragment();
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"),
+                System.currentTimeMillis() - (ConfigurationManager.TTL + 1));
+        stubConfigurationFromGateway(fragment, stringFromFixture("configuration.json"));
+
+        getConfiguration(fragment);
+
+        verify(fragment).setConfiguration(any(Configuration.class));
+        verify(fragment, never()).postConfigurationChangedCallback(any(Configuration.class));
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_fetchesConfigFromGatewayWhenOlderThanMaxStaleness()
+            throws InterruptedException {
+        ConfigurationManager.setMaxStaleness(1000);
+        BraintreeFragment fragment = getMockFragment();
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"),
+                System.currentTimeMillis() - (ConfigurationManager.TTL + 1001));
+        stubConfigurationFromGateway(fragment,
+                stringFromFixture("configuration_with_analytics.json"));
+
+        assertEquals(stringFromFixture("configuration_with_analytics.json"),
+                getConfiguration(fragment).toJson());
+        verify(fragment, never()).setConfiguration(any(Configuration.class));
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_doesNotReadDiskOnMainThread() throws InterruptedException {
+        final BraintreeFragment fragment = getMockFragment();
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"));
+        final StrictMode.ThreadPolicy[] originalPolicy = new StrictMode.ThreadPolicy[1];
+        final Configuration[] result = new Configuration[1];
+        final boolean[] calledOnMainThread = new boolean[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                originalPolicy[0] = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyDeath()
+                        .build());
+
+                ConfigurationManager.getConfiguration(fragment, new ConfigurationListener() {
+                    @Override
+                    public void onConfigurationFetched(Configuration configuration) {
+                        result[0] = configuration;
+                        calledOnMainThread[0] = Looper.myLooper() == Looper.getMainLooper();
+                        latch.countDown();
+                    }
+                }, new BraintreeResponseListener<Exception>() {
+                    @Override
+                    public void onResponse(Exception e) {
+                        fail(e.getMessage());
+                    }
+                });
+            }
+        });
+
+        latch.await();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.setThreadPolicy(originalPolicy[0]);
+            }
+        });
+
+        assertEquals(stringFromFixture("configuration.json"), result[0].toJson());
+        assertTrue(calledOnMainThread[0]);
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_movesConfigFromSharedPreferencesToSnapshot()
+            throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        long cachedAt = System.currentTimeMillis() - 1000;
+        writeMockConfiguration(mTokenizationKey.getConfigUrl(),
+                stringFromFixture("configuration.json"), cachedAt);
+
+        assertEquals(stringFromFixture("configuration.json"), getConfiguration(fragment).toJson());
+
+        String configUrl = getVersionedConfigUrl();
+        ConfigurationSnapshot snapshot = ConfigurationSnapshot.read(
+                ConfigurationCache.getSnapshotFile(getTargetContext(), configUrl), configUrl);
+        assertNotNull(snapshot);
+        assertEquals(stringFromFixture("configuration.json"), snapshot.getConfiguration().toJson());
+        assertEquals(cachedAt, snapshot.getCachedAt());
+        String key = Base64.encodeToString(configUrl.getBytes(), 0);
+        assertFalse(getBraintreeSharedPreferences(getTargetContext()).contains(key));
+        assertFalse(getBraintreeSharedPreferences(getTargetContext()).contains(key + "_timestamp"));
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_readsConfigFromSnapshotOnMemoryMiss()
+            throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        stubConfigurationFromGateway(fragment,
+                stringFromFixture("configuration_with_analytics.json"));
+        Configuration fetched = getConfiguration(fragment);
+        ConfigurationCache.getInstance().clearMemoryCache();
+        when(fragment.getHttpClient()).thenReturn(new BraintreeHttpClient(mTokenizationKey) {
+            @Override
+            public void get(String path, HttpResponseCallback callback) {
+                fail("Config should be read from the snapshot");
+            }
+        });
+
+        Configuration configuration = getConfiguration(fragment);
+
+        assertEquals(fetched.toJson(), configuration.toJson());
+        assertEquals(fetched.getClientApiUrl(), configuration.getClientApiUrl());
+        assertEquals(fetched.getAnalytics().getUrl(), configuration.getAnalytics().getUrl());
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_sendsETagAndKeepsCachedConfigWhenNotModified()
+            throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        when(fragment.getHttpClient()).thenReturn(new BraintreeHttpClient(mTokenizationKey) {
+            @Override
+            public void get(String path, HttpResponseCallback callback) {
+                respond(callback, stringFromFixture("configuration.json"),
+                        new HttpCacheHeaders("\"v1\"", 0));
+            }
+        });
+        Configuration configuration = getConfiguration(fragment);
+        SystemClock.sleep(5);
+
+        final String[] sentETag = new String[1];
+        when(fragment.getHttpClient()).thenReturn(new BraintreeHttpClient(mTokenizationKey) {
+            @Override
+            public void get(String path, HttpResponseCallback callback) {
+                sentETag[0] = ((StreamingHttpResponseCallback<?>) callback).getETag();
+                respondNotModified(callback, new HttpCacheHeaders(null, TimeUnit.HOURS.toMillis(1)));
+            }
+        });
+        assertSame(configuration, getConfiguration(fragment));
+        assertEquals("\"v1\"", sentETag[0]);
+
+        when(fragment.getHttpClient()).thenReturn(new BraintreeHttpClient(mTokenizationKey) {
+            @Override
+            public void get(String path, HttpResponseCallback callback) {
+                fail("Config should be served from the cache");
+            }
+        });
+        assertSame(configuration, getConfiguration(fragment));
+
+        String configUrl = getVersionedConfigUrl();
+        ConfigurationSnapshot snapshot = ConfigurationSnapshot.read(
+                ConfigurationCache.getSnapshotFile(getTargetContext(), configUrl), configUrl);
+        assertEquals(TimeUnit.HOURS.toMillis(1), snapshot.getMaxAge());
+        assertEquals("\"v1\"", snapshot.getETag());
+    }
+
+    @Test(timeout = 1000)
+    public void getConfiguration_fetchesConfigAgainAfterCacheControlMaxAge()
+            throws InterruptedException {
+        BraintreeFragment fragment = getMockFragment();
+        final List<String> sentETags = new ArrayList<>();
+        when(fragment.getHttpClient()).thenReturn(new BraintreeHttpClient(mTokenizationKey) {
+            @Override
+            public void get(String path, HttpResponseCallback callback) {
+                sentETags.add(((StreamingHttpResponseCallback<?>) callback).getETag());
+                respond(callback, stringFromFixture("configuration.json"),
+                        new HttpCacheHeaders(null, 0));
+            }
+        });
+
+        getConfiguration(fragment);
+        SystemClock.sleep(5);
+        getConfiguration(fragment);
+
+        assertEquals(2, sentETags.size());
+        assertNull(sentETags.get(0));
+        assertNull(sentETags.get(1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void respond(HttpResponseCallback callback, String responseBody,
+            HttpCacheHeaders cacheHeaders) {
+        StreamingHttpResponseCallback<Configuration> streamingCallback =
+                (StreamingHttpResponseCallback<Configuration>) callback;
+        try {
+            streamingCallback.onResponse(streamingCallback.decode(new StringReader(responseBody),
+                    cacheHeaders));
+        } catch (Exception e) {
+            streamingCallback.failure(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void respondNotModified(HttpResponseCallback callback,
+            HttpCacheHeaders cacheHeaders) {
+        StreamingHttpResponseCallback<Configuration> streamingCallback =
+                (StreamingHttpResponseCallback<Configuration>) callback;
+        try {
+            streamingCallback.onResponse(streamingCallback.decodeNotModified(cacheHeaders));
+        } catch (Exception e) {
+            streamingCallback.failure(e);
+        }
+    }
+
+    private String getVersionedConfigUrl() {
+        return Uri.parse(mTokenizationKey.getConfigUrl()).buildUpon()
+                .appendQueryParameter("configVersion", "3").build().toString();
+    }
+
+    private Configuration getConfiguration(BraintreeFragment fragment)
+            throws InterruptedException {
+        final Configuration[] result = new Configuration[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        ConfigurationManager.getConfiguration(fragment, new ConfigurationListener() {
+            @Override
+            public void onConfigurationFetched(Configuration configuration) {
+                result[0] = configuration;
+                latch.countDown();
+            }
+        }, new BraintreeResponseListener<Exception>() {
+            @Override
+            public void onResponse(Exception e) {
+                fail(e.getMessage());
+            }
+        });
+
+        latch.await();
+        getInstrumentation().waitForIdleSync();
+        return result[0];
+    }
+
     private BraintreeFragment getMockFragment() {
         BraintreeFragment fragment = mock(BraintreeFragment.class);
         when(fragment.getAuthorization()).thenReturn(mTokenizationKey);
@@ -19,6 +19,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.util.concurrent.CountDownLatch;
@@ -249,6 +250,29 @@ public class BraintreeHttpClientTest {
         mCountDownLatch.await();
     }
 
+    @Test(timeout = 1000)
+    @SmallTest
+    public void post_withByteArrayBodyPostsErrorWhenClientTokenIsUsedAndInvalidJsonIsSent()
+            throws InvalidArgumentException, InterruptedException, UnsupportedEncodingException {
+        BraintreeHttpClient httpClient = new BraintreeHttpClient(
+                Authorization.fromString(stringFromFixture("client_token.json")));
+
+        httpClient.post("/", "not json".getBytes("UTF-8"), new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Request was successful");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                assertTrue(exception instanceof JSONException);
+                mCountDownLatch.countDown();
+            }
+        });
+
+        mCountDownLatch.await();
+    }
+
     @Test(timeout = 1000)
     @SmallTest
     public void throwsAuthorizationExceptionWithCorrectMessageOn403() throws IOException,
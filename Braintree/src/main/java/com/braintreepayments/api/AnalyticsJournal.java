@@ -0,0 +1,367 @@
+package com.braintreepayments.api;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.braintreepayments.api.AnalyticsManager.AnalyticsRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of analytics events on disk, so events that have not been sent yet survive
+ * the process being killed. Each event is written as a length and checksum prefixed record;
+ * a partially written record at the end of the journal is discarded when it is loaded, as are
+ * records written in an older format.
+ * <p/>
+ * Events are handed out in batches and stay in the journal until
+ * {@link #remove(List)} is called after they were sent. When the journal would grow past its
+ * maximum size the oldest events are dropped.
+ * <p/>
+ * All disk I/O happens on the calling thread, which should be a background thread.
+ */
+class AnalyticsJournal {
+
+    static final long MAX_SIZE = 256 * 1024;
+
+    private static final String JOURNAL_DIRECTORY = "braintree-analytics";
+    private static final String JOURNAL_FILE = "events";
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int RECORD_VERSION = 2;
+
+    private static AnalyticsJournal sInstance;
+
+    private final File mFile;
+    private final long mMaxSize;
+    private final List<Record> mRecords = new ArrayList<>();
+    private final Set<AnalyticsRequest> mInFlight = new HashSet<>();
+
+    private boolean mLoaded;
+    private long mSize;
+
+    @VisibleForTesting
+    AnalyticsJournal(File file, long maxSize) {
+        mFile = file;
+        mMaxSize = maxSize;
+    }
+
+    static synchronized AnalyticsJournal getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(),
+                    JOURNAL_DIRECTORY);
+            sInstance = new AnalyticsJournal(new File(directory, JOURNAL_FILE), MAX_SIZE);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Add the event to the end of the journal, dropping the oldest events if the journal would
+     * grow past its maximum size.
+     */
+    @WorkerThread
+    synchronized void append(AnalyticsRequest request) {
+        load();
+
+        Record record;
+        try {
+            record = new Record(request, encode(request));
+        } catch (IOException e) {
+            return;
+        }
+
+        if (record.mBytes.length > mMaxSize) {
+            return;
+        }
+
+        if (mSize + record.mBytes.length > mMaxSize) {
+            // drop down to three quarters so the journal is not rewritten on every append
+            long targetSize = (mMaxSize * 3) / 4 - record.mBytes.length;
+            Iterator<Record> iterator = mRecords.iterator();
+            while (mSize > targetSize && iterator.hasNext()) {
+                Record oldest = iterator.next();
+                iterator.remove();
+                mInFlight.remove(oldest.mRequest);
+                mSize -= oldest.mBytes.length;
+            }
+
+            mRecords.add(record);
+            mSize += record.mBytes.length;
+            rewrite();
+            return;
+        }
+
+        mRecords.add(record);
+        mSize += record.mBytes.length;
+
+        try {
+            ensureDirectory();
+            FileOutputStream out = new FileOutputStream(mFile, true);
+            try {
+                out.write(record.mBytes);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * @return the number of events that have not been handed out by {@link #takeBatch(int)}.
+     */
+    @WorkerThread
+    synchronized int getPendingCount() {
+        load();
+        return mRecords.size() - mInFlight.size();
+    }
+
+    /**
+     * Hand out the oldest events that have not been handed out yet. The events stay in the
+     * journal until they are passed to {@link #remove(List)}, or are handed out again after they
+     * are passed to {@link #release(List)}.
+     *
+     * @param maxEvents the maximum number of events to return.
+     * @return the events, oldest first, or an empty list if there are none.
+     */
+    @WorkerThread
+    synchronized List<AnalyticsRequest> takeBatch(int maxEvents) {
+        load();
+
+        List<AnalyticsRequest> batch = new ArrayList<>();
+        for (Record record : mRecords) {
+            if (batch.size() == maxEvents) {
+                break;
+            }
+
+            if (mInFlight.add(record.mRequest)) {
+                batch.add(record.mRequest);
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Remove events that were sent successfully from the journal.
+     */
+    @WorkerThread
+    synchronized void remove(List<AnalyticsRequest> requests) {
+        Set<AnalyticsRequest> removed = new HashSet<>(requests);
+        mInFlight.removeAll(removed);
+
+        boolean changed = false;
+        Iterator<Record> iterator = mRecords.iterator();
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            if (removed.contains(record.mRequest)) {
+                iterator.remove();
+                mSize -= record.mBytes.length;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Make events that failed to send available to {@link #takeBatch(int)} again.
+     */
+    @WorkerThread
+    synchronized void release(List<AnalyticsRequest> requests) {
+        mInFlight.removeAll(requests);
+    }
+
+    /**
+     * @return all events in the journal, oldest first.
+     */
+    @VisibleForTesting
+    synchronized List<AnalyticsRequest> getEvents() {
+        load();
+
+        List<AnalyticsRequest> events = new ArrayList<>();
+        for (Record record : mRecords) {
+            events.add(record.mRequest);
+        }
+
+        return events;
+    }
+
+    /**
+     * Remove all events from memory and delete the journal.
+     */
+    @VisibleForTesting
+    synchronized void clear() {
+        mRecords.clear();
+        mInFlight.clear();
+        mSize = 0;
+        mLoaded = true;
+        mFile.delete();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        long length = mFile.length();
+        if (length == 0) {
+            return;
+        }
+
+        byte[] bytes = new byte[(int) Math.min(length, mMaxSize * 2)];
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            mFile.delete();
+            return;
+        }
+
+        int offset = 0;
+        boolean droppedRecords = false;
+        while (bytes.length - offset >= RECORD_HEADER_SIZE) {
+            Record record = decode(bytes, offset);
+            if (record == null) {
+                break;
+            }
+
+            offset += record.mBytes.length;
+            if (record.mRequest == null) {
+                droppedRecords = true;
+                continue;
+            }
+
+            mRecords.add(record);
+            mSize += record.mBytes.length;
+        }
+
+        if (offset != length || droppedRecords) {
+            // a record was partially written, corrupted or in an older format, keep the intact
+            // records before it
+            rewrite();
+        }
+    }
+
+    private void rewrite() {
+        try {
+            ensureDirectory();
+            File temporaryFile = File.createTempFile("journal-", ".tmp", mFile.getParentFile());
+            FileOutputStream out = new FileOutputStream(temporaryFile);
+            try {
+                for (Record record : mRecords) {
+                    out.write(record.mBytes);
+                }
+            } finally {
+                out.close();
+            }
+
+            if (!temporaryFile.renameTo(mFile)) {
+                temporaryFile.delete();
+            }
+        } catch (IOException ignored) {}
+    }
+
+    private void ensureDirectory() throws IOException {
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+    }
+
+    private static byte[] encode(AnalyticsRequest request) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(RECORD_VERSION);
+        payload.writeUTF(request.getConfigUrl());
+        payload.writeUTF(request.getIntegrationType());
+        payload.writeUTF(request.getEventFragment());
+        payload.writeLong(request.getTimestamp());
+        payload.writeBoolean(request.getSessionId() != null);
+        if (request.getSessionId() != null) {
+            payload.writeUTF(request.getSessionId());
+        }
+        payload.flush();
+
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(
+                RECORD_HEADER_SIZE + bytes.length);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(bytes.length);
+        record.writeLong(crc.getValue());
+        record.write(bytes);
+        record.flush();
+
+        return recordBytes.toByteArray();
+    }
+
+    private static Record decode(byte[] bytes, int offset) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, offset, bytes.length - offset));
+            int payloadLength = in.readInt();
+            long checksum = in.readLong();
+            if (payloadLength < 0 || payloadLength > in.available()) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset + RECORD_HEADER_SIZE, payloadLength);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+
+            byte[] recordBytes = new byte[RECORD_HEADER_SIZE + payloadLength];
+            System.arraycopy(bytes, offset, recordBytes, 0, recordBytes.length);
+            if (in.readByte() != RECORD_VERSION) {
+                return new Record(null, recordBytes);
+            }
+
+            String configUrl = in.readUTF();
+            String integrationType = in.readUTF();
+            String eventFragment = in.readUTF();
+            long timestamp = in.readLong();
+            String sessionId = in.readBoolean() ? in.readUTF() : null;
+
+            return new Record(new AnalyticsRequest(integrationType, eventFragment, timestamp,
+                    sessionId, configUrl), recordBytes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An encoded event, with a {@code null} request if it was written in an older format.
+     */
+    private static class Record {
+
+        private final AnalyticsRequest mRequest;
+        private final byte[] mBytes;
+
+        Record(AnalyticsRequest request, byte[] bytes) {
+            mRequest = request;
+            mBytes = bytes;
+        }
+    }
+}
@@ -7,8 +7,14 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
 import android.os.Build.VERSION;
 import android.provider.Settings.Secure;
+import android.support.annotation.WorkerThread;
 
 import com.braintreepayments.api.interfaces.ConfigurationListener;
+import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.internal.RequestPriority;
+import com.braintreepayments.api.internal.RequestTiming;
+import com.braintreepayments.api.internal.RetryPolicy;
 import com.braintreepayments.api.models.ClientToken;
 import com.braintreepayments.api.models.Configuration;
 
@@ -17,13 +23,19 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Centralized location for caching, queuing, and sending Analytics events
+ * Centralized location for caching, queuing, and sending Analytics events. Events are queued in
+ * an {@link AnalyticsJournal} on disk so they are not lost when the process is killed.
  */
 class AnalyticsManager {
 
@@ -51,13 +63,44 @@ class AnalyticsManager {
     private static final String USER_INTERFACE_ORIENTATION_KEY = "userInterfaceOrientation";
 
     private static final int REQUEST_THRESHOLD = 5;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int REQUEST_COMPRESSION_MINIMUM_SIZE = 1024;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final RetryPolicy ANALYTICS_RETRY_POLICY = new RetryPolicy()
+            .setBackoff(TimeUnit.SECONDS.toMillis(1), TimeUnit.SECONDS.toMillis(10))
+            .setDeadline(TimeUnit.MINUTES.toMillis(1))
+            .setRetrySentRequests(false);
 
     private static JSONObject sCachedMetadata;
 
-    static ArrayList<AnalyticsRequest> sRequestQueue = new ArrayList<>();
+    /**
+     * Appends events to the {@link AnalyticsJournal} and uploads them, one task at a time. Also runs
+     * {@link Braintree#prefetch(Context, String)}.
+     */
+    static final ExecutorService sExecutor = createExecutor();
+
+    /**
+     * Set up the http client for uploads to the analytics url of the {@link Configuration}.
+     * Uploads are compressed, retried in the background and left to complete when the fragment is
+     * destroyed, so their events are always removed from or released back to the
+     * {@link AnalyticsJournal}. Called once for each {@link Configuration} the fragment receives.
+     */
+    static void configureHttpClient(BraintreeHttpClient httpClient, Configuration configuration) {
+        if (!configuration.getAnalytics().isEnabled()) {
+            return;
+        }
+
+        String analyticsUrl = configuration.getAnalytics().getUrl();
+        httpClient.enableRequestCompression(analyticsUrl, REQUEST_COMPRESSION_MINIMUM_SIZE);
+        httpClient.setRetryPolicy(analyticsUrl, ANALYTICS_RETRY_POLICY);
+        httpClient.setEndpointClass(analyticsUrl, RequestTiming.ENDPOINT_ANALYTICS);
+        httpClient.setRequestPriority(analyticsUrl, RequestPriority.BACKGROUND);
+        httpClient.setCancellable(analyticsUrl, false);
+    }
 
     /**
-     * Queue or send analytics request with integration type and event.
+     * Queue or send analytics request with integration type and event. The event is written to
+     * the {@link AnalyticsJournal} and the journal is uploaded once it holds enough events.
      *
      * @param integrationType The current method of integration used.
      * @param eventFragment The analytics event to record.
@@ -67,47 +110,70 @@ class AnalyticsManager {
         final AnalyticsRequest request = new AnalyticsRequest(fragment, integrationType, eventFragment);
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
-            public void onConfigurationFetched(Configuration configuration) {
+            public void onConfigurationFetched(final Configuration configuration) {
                 if (!configuration.getAnalytics().isEnabled()) {
                     return;
                 }
 
-                sRequestQueue.add(request);
-
-                if (sRequestQueue.size() >= REQUEST_THRESHOLD) {
-                    processRequests(fragment);
-                }
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        AnalyticsJournal journal = getJournal(fragment);
+                        journal.append(request);
+
+                        if (journal.getPendingCount() >= REQUEST_THRESHOLD) {
+                            uploadEvents(fragment, configuration, journal);
+                        }
+                    }
+                });
             }
         });
     }
 
     /**
-     * Batch and send remaining analytics events even if batch size has not been reached.
+     * Batch and send remaining analytics events even if batch size has not been reached,
+     * including events left in the {@link AnalyticsJournal} by previous processes.
      */
     static void flushEvents(final BraintreeFragment fragment) {
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
-            public void onConfigurationFetched(Configuration configuration) {
-                if (configuration.getAnalytics().isEnabled()) {
-                    processRequests(fragment);
+            public void onConfigurationFetched(final Configuration configuration) {
+                if (!configuration.getAnalytics().isEnabled()) {
+                    return;
                 }
+
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadEvents(fragment, configuration, getJournal(fragment));
+                    }
+                });
             }
         });
     }
 
-    private static void processRequests(BraintreeFragment fragment) {
-        if (sRequestQueue.size() == 0) {
-            return;
-        }
-
-        ArrayList<AnalyticsRequest> requests = new ArrayList<>();
-        requests.addAll(sRequestQueue);
-        sRequestQueue.clear();
-
-        try {
-            Map<String, List<AnalyticsRequest>> requestsToSessionId = new HashMap<>();
+    /**
+     * Send all events in the journal that are not already being sent, in batches of at most
+     * {@link #MAX_BATCH_SIZE} events per session. Events are only removed from the journal once
+     * the Gateway accepted them, events that failed to send are sent again on the next upload.
+     * Events recorded for a different authorization, for example by a previous process, are
+     * dropped because they cannot be sent with the fragment's authorization.
+     */
+    @WorkerThread
+    private static void uploadEvents(BraintreeFragment fragment, Configuration configuration,
+            AnalyticsJournal journal) {
+        String configUrl = fragment.getAuthorization().getConfigUrl();
+        List<AnalyticsRequest> requests;
+        while (!(requests = journal.takeBatch(MAX_BATCH_SIZE)).isEmpty()) {
+            Map<String, List<AnalyticsRequest>> requestsToSessionId = new LinkedHashMap<>();
+            List<AnalyticsRequest> otherAuthorizationRequests = new ArrayList<>();
 
             for (AnalyticsRequest request : requests) {
+                if (!configUrl.equals(request.getConfigUrl())) {
+                    otherAuthorizationRequests.add(request);
+                    continue;
+                }
+
                 List<AnalyticsRequest> requestsForId = requestsToSessionId.get(request.getSessionId());
                 if (requestsForId == null) {
                     requestsForId = new ArrayList<>();
@@ -117,44 +183,111 @@ class AnalyticsManager {
                 requestsToSessionId.put(request.getSessionId(), requestsForId);
             }
 
+            if (!otherAuthorizationRequests.isEmpty()) {
+                journal.remove(otherAuthorizationRequests);
+            }
+
             for (Entry<String, List<AnalyticsRequest>> entry : requestsToSessionId.entrySet()) {
-                JSONArray events = new JSONArray();
+                uploadBatch(fragment, configuration, journal, entry.getKey(), entry.getValue());
+            }
+        }
+    }
 
-                for (AnalyticsRequest request : entry.getValue()) {
-                    JSONObject event = new JSONObject()
-                            .put(KIND_KEY, request.getEvent())
-                            .put(TIMESTAMP_KEY, request.getTimestamp());
+    @WorkerThread
+    private static void uploadBatch(BraintreeFragment fragment, Configuration configuration,
+            final AnalyticsJournal journal, String sessionId, final List<AnalyticsRequest> batch) {
+        String fullRequest;
+        try {
+            JSONArray events = new JSONArray();
 
-                    events.put(event);
-                }
+            for (AnalyticsRequest request : batch) {
+                JSONObject event = new JSONObject()
+                        .put(KIND_KEY, request.getEvent())
+                        .put(TIMESTAMP_KEY, request.getTimestamp());
 
-                JSONObject metadata = generateMetadata(fragment.getApplicationContext(),
-                        entry.getValue().get(0).getIntegrationType(), entry.getKey());
+                events.put(event);
+            }
 
-                JSONObject fullRequest = new JSONObject()
-                        .put(ANALYTICS_KEY, events)
-                        .put(META_KEY, metadata);
+            JSONObject metadata = generateMetadata(fragment.getApplicationContext(),
+                    batch.get(0).getIntegrationType(), sessionId);
 
-                if (fragment.getAuthorization() instanceof ClientToken) {
-                    fullRequest.put(AUTHORIZATION_FINGERPRINT_KEY,
-                            ((ClientToken) fragment.getAuthorization()).getAuthorizationFingerprint());
-                } else {
-                    fullRequest.put(TOKENIZATION_KEY, fragment.getAuthorization().toString());
-                }
+            JSONObject json = new JSONObject()
+                    .put(ANALYTICS_KEY, events)
+                    .put(META_KEY, metadata);
 
-                fragment.getHttpClient().post(fragment.getConfiguration().getAnalytics().getUrl(),
-                        fullRequest.toString(), null);
+            if (fragment.getAuthorization() instanceof ClientToken) {
+                json.put(AUTHORIZATION_FINGERPRINT_KEY,
+                        ((ClientToken) fragment.getAuthorization()).getAuthorizationFingerprint());
+            } else {
+                json.put(TOKENIZATION_KEY, fragment.getAuthorization().toString());
             }
-        } catch (JSONException ignored) {}
+
+            fullRequest = json.toString();
+        } catch (JSONException e) {
+            // the events can never be sent
+            journal.remove(batch);
+            return;
+        }
+
+        fragment.getHttpClient().post(configuration.getAnalytics().getUrl(), fullRequest,
+                new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        journal.remove(batch);
+                    }
+                });
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        journal.release(batch);
+                    }
+                });
+            }
+        });
     }
 
-    private static JSONObject generateMetadata(Context context, String integrationType, String sessionId)
-            throws JSONException {
+    private static AnalyticsJournal getJournal(BraintreeFragment fragment) {
+        return AnalyticsJournal.getInstance(fragment.getApplicationContext());
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "braintree-analytics");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Collect the app and device metadata sent with every analytics request, so the first request
+     * does not have to.
+     */
+    static void prefetchMetadata(Context context) {
+        getCachedMetadata(context);
+    }
+
+    private static synchronized JSONObject getCachedMetadata(Context context) {
         if (sCachedMetadata == null) {
             sCachedMetadata = populateCachedMetadata(context);
         }
 
-        return new JSONObject(sCachedMetadata.toString())
+        return sCachedMetadata;
+    }
+
+    private static JSONObject generateMetadata(Context context, String integrationType, String sessionId)
+            throws JSONException {
+        return new JSONObject(getCachedMetadata(context).toString())
                 .put(DEVICE_NETWORK_TYPE_KEY, DeviceMetadata.getNetworkType(context))
                 .put(INTEGRATION_TYPE_KEY, integrationType)
                 .put(USER_INTERFACE_ORIENTATION_KEY, DeviceMetadata.getUserOrientation(context))
@@ -203,19 +336,31 @@ class AnalyticsManager {
         private final String mIntegrationType;
         private final String mEvent;
         private final long mTimestamp;
-        private String mSessionId;
+        private final String mSessionId;
+        private final String mConfigUrl;
 
         AnalyticsRequest(BraintreeFragment fragment, String integration, String event) {
+            this(integration, event, System.currentTimeMillis() / 1000, fragment.getSessionId(),
+                    fragment.getAuthorization().getConfigUrl());
+        }
+
+        AnalyticsRequest(String integration, String event, long timestamp, String sessionId,
+                String configUrl) {
             mIntegrationType = integration;
             mEvent = event;
-            mTimestamp = System.currentTimeMillis() / 1000;
-            mSessionId = fragment.getSessionId();
+            mTimestamp = timestamp;
+            mSessionId = sessionId;
+            mConfigUrl = configUrl;
         }
 
         String getEvent() {
             return "android." + mIntegrationType + "." + mEvent;
         }
 
+        String getEventFragment() {
+            return mEvent;
+        }
+
         long getTimestamp() {
             return mTimestamp;
         }
@@ -227,5 +372,13 @@ class AnalyticsManager {
         String getSessionId() {
             return mSessionId;
         }
+
+        /**
+         * @return the configuration url of the authorization the event was recorded with, which
+         * identifies the authorization without storing it on disk.
+         */
+        String getConfigUrl() {
+            return mConfigUrl;
+        }
     }
 }
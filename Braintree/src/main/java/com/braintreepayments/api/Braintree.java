@@ -0,0 +1,96 @@
+package com.braintreepayments.api;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import com.braintreepayments.api.exceptions.InvalidArgumentException;
+import com.braintreepayments.api.interfaces.BraintreeResponseListener;
+import com.braintreepayments.api.interfaces.ConfigurationListener;
+import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.models.Authorization;
+import com.braintreepayments.api.models.Configuration;
+import com.paypal.android.sdk.onetouch.core.PayPalOneTouchCore;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry points that are not tied to a {@link BraintreeFragment}.
+ */
+public class Braintree {
+
+    private static final long PREFETCH_TIMEOUT_SECONDS = 10;
+
+    private Braintree() {}
+
+    /**
+     * Do the work the first {@link BraintreeFragment} for an authorization would otherwise do
+     * before it is ready, on a background thread. This parses the authorization, loads the
+     * Braintree shared preferences, collects device metadata, fetches the {@link Configuration},
+     * which also opens a connection to the Gateway, and sets up PayPal One Touch if PayPal is
+     * enabled.
+     * <p/>
+     * Call this as early as it is known that checkout may be shown, e.g. on app start. A
+     * {@link BraintreeFragment} created afterwards with the same authorization uses the prefetched
+     * {@link Configuration} without waiting on the network, or joins the request if it is still
+     * in flight. The prefetch runs on the same background thread as analytics uploads and gives up
+     * waiting on the {@link Configuration} after 10 seconds. Errors are ignored, they are reported
+     * to the fragment when it fetches the {@link Configuration} itself.
+     *
+     * @param context any {@link Context}, the application context is used.
+     * @param authorization the tokenization key or client token that will be used to create
+     *        {@link BraintreeFragment}s.
+     */
+    public static void prefetch(Context context, final String authorization) {
+        final Context applicationContext = context.getApplicationContext();
+        AnalyticsManager.sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetchSynchronously(applicationContext, authorization);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    @WorkerThread
+    static void prefetchSynchronously(Context context, String authorizationString) {
+        Authorization authorization;
+        try {
+            authorization = Authorization.fromString(authorizationString);
+        } catch (InvalidArgumentException e) {
+            return;
+        }
+
+        DeviceMetadata.getBraintreeSharedPreferences(context).getAll();
+        AnalyticsManager.prefetchMetadata(context);
+
+        final Configuration[] configuration = new Configuration[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        ConfigurationManager.prefetchConfiguration(context, authorization,
+                new BraintreeHttpClient(authorization), new ConfigurationListener() {
+                    @Override
+                    public void onConfigurationFetched(Configuration fetchedConfiguration) {
+                        configuration[0] = fetchedConfiguration;
+                        latch.countDown();
+                    }
+                }, new BraintreeResponseListener<Exception>() {
+                    @Override
+                    public void onResponse(Exception exception) {
+                        latch.countDown();
+                    }
+                });
+
+        try {
+            if (!latch.await(PREFETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        if (configuration[0] != null && configuration[0].isPayPalEnabled()) {
+            PayPalOneTouchCore.prefetch(context);
+        }
+    }
+}
@@ -16,11 +16,13 @@ import com.braintreepayments.api.interfaces.BraintreeCancelListener;
 import com.braintreepayments.api.interfaces.BraintreeErrorListener;
 import com.braintreepayments.api.interfaces.BraintreeListener;
 import com.braintreepayments.api.interfaces.BraintreeResponseListener;
+import com.braintreepayments.api.interfaces.ConfigurationChangedListener;
 import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.PaymentMethodNonceCreatedListener;
 import com.braintreepayments.api.interfaces.PaymentMethodNoncesUpdatedListener;
 import com.braintreepayments.api.interfaces.QueuedCallback;
 import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.internal.Deadline;
 import com.braintreepayments.api.models.Authorization;
 import com.braintreepayments.api.models.Configuration;
 import com.braintreepayments.api.models.PaymentMethodNonce;
@@ -37,6 +39,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Core Braintree class that handles network requests and managing callbacks.
@@ -52,6 +55,8 @@ public class BraintreeFragment extends Fragment {
     @VisibleForTesting
     static final String EXTRA_BROWSER_SWITCHING = "com.braintreepayments.api.EXTRA_BROWSER_SWITCHING";
     @VisibleForTesting
+    static final String EXTRA_BROWSER_SWITCH_DEADLINE = "com.braintreepayments.api.EXTRA_BROWSER_SWITCH_DEADLINE";
+    @VisibleForTesting
     static final String EXTRA_CACHED_PAYMENT_METHOD_NONCES =
             "com.braintreepayments.api.EXTRA_CACHED_PAYMENT_METHOD_NONCES";
     @VisibleForTesting
@@ -73,10 +78,12 @@ public class BraintreeFragment extends Fragment {
     private final List<PaymentMethodNonce> mCachedPaymentMethodNonces = new ArrayList<>();
     private boolean mHasFetchedPaymentMethodNonces = false;
     private boolean mIsBrowserSwitching = false;
+    private Long mBrowserSwitchDeadlineMillis;
     private int mConfigurationRequestAttempts = 0;
     private String mSessionId;
 
     private ConfigurationListener mConfigurationListener;
+    private ConfigurationChangedListener mConfigurationChangedListener;
     private BraintreeResponseListener<Exception> mConfigurationErrorListener;
     private BraintreeCancelListener mCancelListener;
     private PaymentMethodNoncesUpdatedListener mPaymentMethodNoncesUpdatedListener;
@@ -127,6 +134,23 @@ public class BraintreeFragment extends Fragment {
         return braintreeFragment;
     }
 
+    /**
+     * Serve cached {@link Configuration}s for up to the given time after they expire. While a
+     * stale {@link Configuration} is in use a fresh one is fetched in the background and replaces
+     * it when the request succeeds. If the fresh {@link Configuration} is different, a
+     * {@link ConfigurationChangedListener} added to the fragment is notified.
+     * <p/>
+     * {@link Configuration}s are cached for the whole process, so this applies to all
+     * {@link BraintreeFragment}s. Defaults to 0, which always fetches a fresh {@link Configuration}
+     * once the cached one has expired.
+     *
+     * @param maxStaleness the time in milliseconds after expiring that a cached
+     *        {@link Configuration} may still be used.
+     */
+    public static void setMaxConfigurationStaleness(long maxStaleness) {
+        ConfigurationManager.setMaxStaleness(maxStaleness);
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -149,6 +173,9 @@ public class BraintreeFragment extends Fragment {
 
             mHasFetchedPaymentMethodNonces = savedInstanceState.getBoolean(EXTRA_FETCHED_PAYMENT_METHOD_NONCES);
             mIsBrowserSwitching = savedInstanceState.getBoolean(EXTRA_BROWSER_SWITCHING);
+            if (savedInstanceState.containsKey(EXTRA_BROWSER_SWITCH_DEADLINE)) {
+                mBrowserSwitchDeadlineMillis = savedInstanceState.getLong(EXTRA_BROWSER_SWITCH_DEADLINE);
+            }
             mSessionId = savedInstanceState.getString(EXTRA_SESSION_ID);
         } else {
             mSessionId = DeviceMetadata.getFormattedUUID();
@@ -204,6 +231,9 @@ public class BraintreeFragment extends Fragment {
                 (ArrayList<? extends Parcelable>) mCachedPaymentMethodNonces);
         outState.putBoolean(EXTRA_FETCHED_PAYMENT_METHOD_NONCES, mHasFetchedPaymentMethodNonces);
         outState.putBoolean(EXTRA_BROWSER_SWITCHING, mIsBrowserSwitching);
+        if (mBrowserSwitchDeadlineMillis != null) {
+            outState.putLong(EXTRA_BROWSER_SWITCH_DEADLINE, mBrowserSwitchDeadlineMillis);
+        }
         outState.putString(EXTRA_SESSION_ID, mSessionId);
     }
 
@@ -216,6 +246,15 @@ public class BraintreeFragment extends Fragment {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        if (mHttpClient != null) {
+            mHttpClient.cancelAll();
+        }
+    }
+
     @Override
     public void startActivity(Intent intent) {
         if (intent.hasExtra(BraintreeBrowserSwitchActivity.EXTRA_BROWSER_SWITCH)) {
@@ -258,6 +297,10 @@ public class BraintreeFragment extends Fragment {
             mConfigurationListener = (ConfigurationListener) listener;
         }
 
+        if (listener instanceof ConfigurationChangedListener) {
+            mConfigurationChangedListener = (ConfigurationChangedListener) listener;
+        }
+
         if (listener instanceof BraintreeCancelListener) {
             mCancelListener = (BraintreeCancelListener) listener;
         }
@@ -287,6 +330,10 @@ public class BraintreeFragment extends Fragment {
             mConfigurationListener = null;
         }
 
+        if (listener instanceof ConfigurationChangedListener) {
+            mConfigurationChangedListener = null;
+        }
+
         if (listener instanceof BraintreeCancelListener) {
             mCancelListener = null;
         }
@@ -368,6 +415,20 @@ public class BraintreeFragment extends Fragment {
         });
     }
 
+    protected void postConfigurationChangedCallback(final Configuration configuration) {
+        postOrQueueCallback(new QueuedCallback() {
+            @Override
+            public boolean shouldRun() {
+                return mConfigurationChangedListener != null;
+            }
+
+            @Override
+            public void run() {
+                mConfigurationChangedListener.onConfigurationChanged(configuration);
+            }
+        });
+    }
+
     @VisibleForTesting
     protected void postOrQueueCallback(QueuedCallback callback) {
         if (!callback.shouldRun()) {
@@ -476,6 +537,7 @@ public class BraintreeFragment extends Fragment {
     protected void setConfiguration(Configuration configuration) {
         mConfiguration = configuration;
         getHttpClient().setBaseUrl(configuration.getClientApiUrl());
+        AnalyticsManager.configureHttpClient(getHttpClient(), configuration);
     }
 
     protected BraintreeHttpClient getHttpClient() {
@@ -486,6 +548,29 @@ public class BraintreeFragment extends Fragment {
         return mSessionId;
     }
 
+    /**
+     * Pauses a {@link Deadline} while the customer is in another app or the browser. The time that
+     * remains is kept with the rest of the browser switch state so it survives the process being
+     * killed.
+     *
+     * @param deadline the {@link Deadline} to pause, or {@code null} to clear a paused deadline.
+     */
+    void setBrowserSwitchDeadline(Deadline deadline) {
+        mBrowserSwitchDeadlineMillis = (deadline == null) ? null : deadline.getRemainingMillis();
+    }
+
+    /**
+     * @return a {@link Deadline} resuming the time that remained when the browser switch started,
+     * or {@code null} if there is none.
+     */
+    Deadline getBrowserSwitchDeadline() {
+        if (mBrowserSwitchDeadlineMillis == null) {
+            return null;
+        }
+
+        return Deadline.after(mBrowserSwitchDeadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
     protected boolean hasFetchedPaymentMethodNonces() {
         return mHasFetchedPaymentMethodNonces;
     }
@@ -0,0 +1,361 @@
+package com.braintreepayments.api;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Base64;
+
+import com.braintreepayments.api.internal.HttpCacheHeaders;
+import com.braintreepayments.api.models.Configuration;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.braintreepayments.api.DeviceMetadata.getBraintreeSharedPreferences;
+
+/**
+ * Two tier cache of {@link Configuration}s keyed by config url. Parsed configurations are kept in
+ * a process wide, least recently used memory cache in front of a disk cache of
+ * {@link ConfigurationSnapshot} files, so disk is only read and configurations are only decoded on
+ * memory misses, on a background thread. Entries are expired after {@link ConfigurationManager#TTL},
+ * but are kept until the maximum staleness requested by the caller so they can be served while
+ * stale. Entries served with a {@code Cache-Control} max age expire after it instead, and their
+ * {@code ETag} is kept so they can be revalidated.
+ * <p/>
+ * Configurations used to be cached in the Braintree {@link SharedPreferences}. An entry found there
+ * is moved to a snapshot the first time it is read.
+ */
+class ConfigurationCache {
+
+    static final int MAX_MEMORY_ENTRIES = 4;
+
+    private static final String SNAPSHOT_DIRECTORY = "braintree-configuration";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ConfigurationCache sInstance;
+
+    private final Map<String, Entry> mMemoryCache = new LinkedHashMap<String, Entry>(
+            MAX_MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+
+    private final ExecutorService mDiskExecutor;
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private long mMemoryHits;
+    private long mMemoryMisses;
+    private long mDiskHits;
+    private long mDiskMisses;
+
+    private ConfigurationCache() {
+        ThreadPoolExecutor diskExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "braintree-configuration-cache");
+                    }
+                });
+        diskExecutor.allowCoreThreadTimeOut(true);
+        mDiskExecutor = diskExecutor;
+    }
+
+    static synchronized ConfigurationCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ConfigurationCache();
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Look up the {@link Entry} cached for the config url. Entries in memory are returned to the
+     * callback immediately on the calling thread. Otherwise the disk cache is read on a background
+     * thread and the callback is posted to the main thread, so the main thread never waits on disk.
+     *
+     * @param maxStaleness the time in milliseconds after an entry expires during which it is still
+     *        returned.
+     * @param callback receives the {@link Entry}, or {@code null} if there is none or it expired
+     *        more than {@code maxStaleness} ago.
+     */
+    void get(final Context context, final String configUrl, final long maxStaleness,
+            final EntryCallback callback) {
+        Entry memoryEntry;
+        synchronized (this) {
+            memoryEntry = mMemoryCache.get(configUrl);
+        }
+
+        if (memoryEntry != null) {
+            callback.onEntry(countMemoryLookup(memoryEntry, maxStaleness));
+            return;
+        }
+
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Entry entry = getFromDisk(context, configUrl, maxStaleness);
+                mMainThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onEntry(entry);
+                    }
+                });
+            }
+        });
+    }
+
+    @Nullable
+    private synchronized Entry countMemoryLookup(Entry entry, long maxStaleness) {
+        if (entry.isUsable(maxStaleness)) {
+            mMemoryHits++;
+            return entry;
+        }
+
+        // the memory cache is never older than the disk cache, so disk is not read
+        mMemoryMisses++;
+        mDiskMisses++;
+        return null;
+    }
+
+    @Nullable
+    @WorkerThread
+    private Entry getFromDisk(Context context, String configUrl, long maxStaleness) {
+        Entry entry = readDisk(context, configUrl);
+
+        synchronized (this) {
+            mMemoryMisses++;
+
+            Entry memoryEntry = mMemoryCache.get(configUrl);
+            if (memoryEntry != null) {
+                // cached while the disk was read, so it is newer
+                entry = memoryEntry;
+            } else if (entry != null) {
+                // kept even when it is too old to use so it can be revalidated
+                mMemoryCache.put(configUrl, entry);
+            }
+
+            if (entry != null && entry.isUsable(maxStaleness)) {
+                mDiskHits++;
+                return entry;
+            }
+
+            mDiskMisses++;
+            return null;
+        }
+    }
+
+    /**
+     * @return the {@code ETag} of the last {@link Configuration} cached for the config url,
+     *         regardless of its age, or {@code null} if there is none. Only the memory cache is
+     *         checked, {@link #get(Context, String, long, EntryCallback)} loads it from disk.
+     */
+    @Nullable
+    synchronized String getETag(String configUrl) {
+        Entry entry = mMemoryCache.get(configUrl);
+        return (entry == null) ? null : entry.mSnapshot.getETag();
+    }
+
+    /**
+     * Cache the {@link Configuration} for the config url in memory and on disk. The disk cache is
+     * written on the calling thread, which should be the thread the {@link Configuration} was
+     * fetched on.
+     *
+     * @param cacheHeaders the caching headers the {@link Configuration} was served with.
+     */
+    @WorkerThread
+    void put(Context context, String configUrl, Configuration configuration,
+            HttpCacheHeaders cacheHeaders) {
+        put(context, configUrl, new ConfigurationSnapshot(configuration,
+                System.currentTimeMillis(), getMaxAge(cacheHeaders), cacheHeaders.getETag()));
+    }
+
+    /**
+     * Restart the lifetime of the {@link Configuration} cached for the config url after the
+     * server confirmed it has not changed.
+     *
+     * @param cacheHeaders the caching headers of the {@code 304 Not Modified} response.
+     * @return the cached {@link Configuration}, or {@code null} if there is none.
+     */
+    @Nullable
+    @WorkerThread
+    Configuration refresh(Context context, String configUrl, HttpCacheHeaders cacheHeaders) {
+        Entry entry;
+        synchronized (this) {
+            entry = mMemoryCache.get(configUrl);
+        }
+
+        if (entry == null) {
+            entry = readDisk(context, configUrl);
+            if (entry == null) {
+                return null;
+            }
+        }
+
+        String eTag = cacheHeaders.getETag();
+        Configuration configuration = entry.getConfiguration();
+        put(context, configUrl, new ConfigurationSnapshot(configuration,
+                System.currentTimeMillis(), getMaxAge(cacheHeaders),
+                (eTag == null) ? entry.mSnapshot.getETag() : eTag));
+        return configuration;
+    }
+
+    private void put(Context context, String configUrl, ConfigurationSnapshot snapshot) {
+        synchronized (this) {
+            mMemoryCache.put(configUrl, new Entry(snapshot));
+        }
+
+        removeLegacyEntry(getBraintreeSharedPreferences(context), getLegacyKey(configUrl));
+        writeSnapshot(context, configUrl, snapshot);
+    }
+
+    /**
+     * Remove all configurations from the memory cache. The disk cache is left as is.
+     */
+    @VisibleForTesting
+    synchronized void clearMemoryCache() {
+        mMemoryCache.clear();
+    }
+
+    /**
+     * Remove all configurations from the memory cache and delete all snapshots.
+     */
+    @VisibleForTesting
+    synchronized void clear(Context context) {
+        mMemoryCache.clear();
+
+        File[] snapshots = getSnapshotDirectory(context).listFiles();
+        if (snapshots != null) {
+            for (File snapshot : snapshots) {
+                snapshot.delete();
+            }
+        }
+    }
+
+    synchronized long getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    synchronized long getMemoryMissCount() {
+        return mMemoryMisses;
+    }
+
+    synchronized long getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    synchronized long getDiskMissCount() {
+        return mDiskMisses;
+    }
+
+    @VisibleForTesting
+    static File getSnapshotFile(Context context, String configUrl) {
+        return new File(getSnapshotDirectory(context), Integer.toHexString(configUrl.hashCode()));
+    }
+
+    @Nullable
+    private static Entry readDisk(Context context, String configUrl) {
+        SharedPreferences prefs = getBraintreeSharedPreferences(context);
+        String legacyKey = getLegacyKey(configUrl);
+        if (prefs.contains(legacyKey)) {
+            return migrateLegacyEntry(context, prefs, configUrl, legacyKey);
+        }
+
+        ConfigurationSnapshot snapshot = ConfigurationSnapshot.read(
+                getSnapshotFile(context, configUrl), configUrl);
+        return (snapshot == null) ? null : new Entry(snapshot);
+    }
+
+    @Nullable
+    private static Entry migrateLegacyEntry(Context context, SharedPreferences prefs,
+            String configUrl, String legacyKey) {
+        String configurationString = prefs.getString(legacyKey, "");
+        long cachedAt = prefs.getLong(legacyKey + "_timestamp", 0);
+        removeLegacyEntry(prefs, legacyKey);
+
+        try {
+            ConfigurationSnapshot snapshot = new ConfigurationSnapshot(
+                    Configuration.fromJson(configurationString), cachedAt,
+                    ConfigurationManager.TTL, null);
+            writeSnapshot(context, configUrl, snapshot);
+            return new Entry(snapshot);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static void writeSnapshot(Context context, String configUrl,
+            ConfigurationSnapshot snapshot) {
+        try {
+            snapshot.write(getSnapshotFile(context, configUrl), configUrl);
+        } catch (IOException ignored) {}
+    }
+
+    private static long getMaxAge(HttpCacheHeaders cacheHeaders) {
+        long maxAge = cacheHeaders.getMaxAgeMillis();
+        return (maxAge == HttpCacheHeaders.NO_MAX_AGE) ? ConfigurationManager.TTL : maxAge;
+    }
+
+    private static void removeLegacyEntry(SharedPreferences prefs, String legacyKey) {
+        if (prefs.contains(legacyKey)) {
+            prefs.edit()
+                    .remove(legacyKey)
+                    .remove(legacyKey + "_timestamp")
+                    .apply();
+        }
+    }
+
+    private static File getSnapshotDirectory(Context context) {
+        return new File(context.getCacheDir(), SNAPSHOT_DIRECTORY);
+    }
+
+    private static String getLegacyKey(String configUrl) {
+        return Base64.encodeToString(configUrl.getBytes(), 0);
+    }
+
+    interface EntryCallback {
+        void onEntry(@Nullable Entry entry);
+    }
+
+    static class Entry {
+        private final ConfigurationSnapshot mSnapshot;
+
+        private Entry(ConfigurationSnapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        Configuration getConfiguration() {
+            return mSnapshot.getConfiguration();
+        }
+
+        /**
+         * @return {@code true} if the entry is older than the max age it was served with, or
+         *         {@link ConfigurationManager#TTL} if it had none.
+         */
+        boolean isExpired() {
+            return getAge() > mSnapshot.getMaxAge();
+        }
+
+        private boolean isUsable(long maxStaleness) {
+            return getAge() <= mSnapshot.getMaxAge() + maxStaleness;
+        }
+
+        private long getAge() {
+            return System.currentTimeMillis() - mSnapshot.getCachedAt();
+        }
+    }
+}
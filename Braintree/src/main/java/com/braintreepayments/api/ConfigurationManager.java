@@ -1,101 +1,231 @@
 package com.braintreepayments.api;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.util.Base64;
 
+import com.braintreepayments.api.exceptions.UnexpectedException;
 import com.braintreepayments.api.interfaces.BraintreeResponseListener;
 import com.braintreepayments.api.interfaces.ConfigurationListener;
-import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
+import com.braintreepayments.api.internal.BraintreeHttpClient;
+import com.braintreepayments.api.internal.HttpCacheHeaders;
+import com.braintreepayments.api.models.Authorization;
 import com.braintreepayments.api.models.Configuration;
 
-import org.json.JSONException;
-
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import static com.braintreepayments.api.DeviceMetadata.getBraintreeSharedPreferences;
-
 /**
- * Manages on-disk {@link Configuration} cache and fetching configuration from the Gateway
+ * Manages the {@link Configuration} cache and fetching configuration from the Gateway
  */
 class ConfigurationManager {
 
+    /**
+     * The time a {@link Configuration} is used for before it is revalidated, unless the Gateway
+     * specifies a {@code Cache-Control} max age.
+     */
     static final long TTL = TimeUnit.MINUTES.toMillis(5);
     @VisibleForTesting
     static boolean sFetchingConfiguration = false;
 
+    private static final Set<String> sRevalidatingConfigUrls =
+            Collections.synchronizedSet(new HashSet<String>());
+    private static long sMaxStaleness = 0;
+
     private ConfigurationManager() {}
 
     static boolean isFetchingConfiguration() {
         return sFetchingConfiguration;
     }
 
+    /**
+     * @param maxStaleness the time in milliseconds after it expires during which an expired
+     *        cached {@link Configuration} is returned while a fresh one is fetched in the background.
+     *        0 disables serving stale configurations.
+     */
+    static void setMaxStaleness(long maxStaleness) {
+        sMaxStaleness = Math.max(0, maxStaleness);
+    }
+
+    /**
+     * Get the {@link Configuration} for the fragment from the cache, or fetch it from the Gateway.
+     * A {@link Configuration} in memory is returned immediately, the disk cache is read on a
+     * background thread and the result is delivered on the main thread.
+     */
     static void getConfiguration(final BraintreeFragment fragment, final @NonNull ConfigurationListener listener,
             final @NonNull BraintreeResponseListener<Exception> errorListener) {
-        final String configUrl = Uri.parse(fragment.getAuthorization().getConfigUrl())
-                .buildUpon()
-                .appendQueryParameter("configVersion", "3")
-                .build()
-                .toString();
+        final String configUrl = getConfigUrl(fragment.getAuthorization());
+
+        sFetchingConfiguration = true;
+        ConfigurationCache.getInstance().get(fragment.getApplicationContext(), configUrl,
+                sMaxStaleness, new ConfigurationCache.EntryCallback() {
+            @Override
+            public void onEntry(ConfigurationCache.Entry cachedEntry) {
+                if (cachedEntry != null) {
+                    sFetchingConfiguration = false;
+                    listener.onConfigurationFetched(cachedEntry.getConfiguration());
 
-        Configuration cachedConfig = getCachedConfiguration(fragment.getApplicationContext(), configUrl);
-
-        if (cachedConfig != null) {
-            listener.onConfigurationFetched(cachedConfig);
-        } else {
-            sFetchingConfiguration = true;
-            fragment.getHttpClient().get(configUrl, new HttpResponseCallback() {
-                @Override
-                public void success(String responseBody) {
-                    try {
-                        Configuration configuration = Configuration.fromJson(responseBody);
-                        cacheConfiguration(fragment.getApplicationContext(), configUrl, configuration);
-
-                        sFetchingConfiguration = false;
-                        listener.onConfigurationFetched(configuration);
-                    } catch (final JSONException e) {
-                        sFetchingConfiguration = false;
-                        errorListener.onResponse(e);
+                    if (cachedEntry.isExpired()) {
+                        revalidateConfiguration(fragment, configUrl, cachedEntry.getConfiguration());
                     }
+                } else {
+                    fetchConfiguration(fragment.getApplicationContext(), fragment.getHttpClient(),
+                            configUrl, new ConfigurationListener() {
+                        @Override
+                        public void onConfigurationFetched(Configuration configuration) {
+                            sFetchingConfiguration = false;
+                            listener.onConfigurationFetched(configuration);
+                        }
+                    }, new BraintreeResponseListener<Exception>() {
+                        @Override
+                        public void onResponse(Exception exception) {
+                            sFetchingConfiguration = false;
+                            errorListener.onResponse(exception);
+                        }
+                    }, new Runnable() {
+                        @Override
+                        public void run() {
+                            sFetchingConfiguration = false;
+                        }
+                    });
                 }
+            }
+        });
+    }
 
-                @Override
-                public void failure(final Exception exception) {
-                    sFetchingConfiguration = false;
-                    errorListener.onResponse(exception);
-                }
-            });
+    /**
+     * Fetch a fresh {@link Configuration} to replace the stale one the fragment is using, or
+     * confirm the stale one has not changed. The fragment keeps the stale configuration if the
+     * request fails.
+     */
+    private static void revalidateConfiguration(final BraintreeFragment fragment, final String configUrl,
+            final Configuration staleConfiguration) {
+        if (!sRevalidatingConfigUrls.add(configUrl)) {
+            return;
         }
-    }
 
-    @Nullable
-    private static Configuration getCachedConfiguration(Context context, String configUrl) {
-        SharedPreferences prefs = getBraintreeSharedPreferences(context);
-        configUrl = Base64.encodeToString(configUrl.getBytes(), 0);
+        fetchConfiguration(fragment.getApplicationContext(), fragment.getHttpClient(), configUrl,
+                new ConfigurationListener() {
+            @Override
+            public void onConfigurationFetched(Configuration configuration) {
+                sRevalidatingConfigUrls.remove(configUrl);
+                fragment.setConfiguration(configuration);
 
-        String timestampKey = configUrl + "_timestamp";
-        if ((System.currentTimeMillis() - prefs.getLong(timestampKey, 0)) > TTL) {
-            return null;
-        }
+                if (!configuration.toJson().equals(staleConfiguration.toJson())) {
+                    fragment.postConfigurationChangedCallback(configuration);
+                }
+            }
+        }, new BraintreeResponseListener<Exception>() {
+            @Override
+            public void onResponse(Exception exception) {
+                sRevalidatingConfigUrls.remove(configUrl);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                sRevalidatingConfigUrls.remove(configUrl);
+            }
+        });
+    }
 
-        try {
-            return Configuration.fromJson(prefs.getString(configUrl, ""));
-        } catch (JSONException e) {
-            return null;
-        }
+    /**
+     * Load the {@link Configuration} for the authorization into the cache ahead of a
+     * {@link BraintreeFragment} needing it. A fragment that asks for the configuration while it is
+     * being prefetched joins the prefetch request instead of making another one.
+     */
+    static void prefetchConfiguration(final Context context, Authorization authorization,
+            final BraintreeHttpClient httpClient, final @NonNull ConfigurationListener listener,
+            final @NonNull BraintreeResponseListener<Exception> errorListener) {
+        final String configUrl = getConfigUrl(authorization);
+        ConfigurationCache.getInstance().get(context, configUrl, 0,
+                new ConfigurationCache.EntryCallback() {
+            @Override
+            public void onEntry(ConfigurationCache.Entry cachedEntry) {
+                if (cachedEntry != null) {
+                    listener.onConfigurationFetched(cachedEntry.getConfiguration());
+                } else {
+                    fetchConfiguration(context, httpClient, configUrl, listener, errorListener,
+                            null);
+                }
+            }
+        });
     }
 
-    private static void cacheConfiguration(Context context, String configUrl, Configuration configuration) {
-        configUrl = Base64.encodeToString(configUrl.getBytes(), 0);
+    private static String getConfigUrl(Authorization authorization) {
+        return Uri.parse(authorization.getConfigUrl())
+                .buildUpon()
+                .appendQueryParameter("configVersion", "3")
+                .build()
+                .toString();
+    }
+
+    /**
+     * Fetch the {@link Configuration} and cache it with the caching headers of the response. When
+     * a {@link Configuration} was cached before, its {@code ETag} is sent so the Gateway can
+     * respond {@code 304 Not Modified}, which restarts the lifetime of the cached
+     * {@link Configuration} without downloading or parsing it again.
+     * <p/>
+     * {@code cancelListener} is run instead of either listener when the request is cancelled by
+     * {@link BraintreeHttpClient#cancelAll()}, for example when the fragment is destroyed.
+     */
+    private static void fetchConfiguration(final Context context, BraintreeHttpClient httpClient,
+            final String configUrl, final ConfigurationListener listener,
+            final BraintreeResponseListener<Exception> errorListener,
+            final @Nullable Runnable cancelListener) {
+        final String eTag = ConfigurationCache.getInstance().getETag(configUrl);
+        httpClient.get(configUrl, new StreamingHttpResponseCallback<Configuration>() {
+            @Override
+            public String getETag() {
+                return eTag;
+            }
+
+            @Override
+            public Configuration decode(Reader responseBody) throws Exception {
+                return decode(responseBody, HttpCacheHeaders.NONE);
+            }
+
+            @Override
+            public Configuration decode(Reader responseBody, HttpCacheHeaders cacheHeaders)
+                    throws Exception {
+                Configuration configuration = Configuration.fromJson(readString(responseBody));
+                ConfigurationCache.getInstance().put(context, configUrl, configuration, cacheHeaders);
+                return configuration;
+            }
+
+            @Override
+            public Configuration decodeNotModified(HttpCacheHeaders cacheHeaders) throws Exception {
+                Configuration configuration = ConfigurationCache.getInstance()
+                        .refresh(context, configUrl, cacheHeaders);
+                if (configuration == null) {
+                    throw new UnexpectedException("Configuration was not modified but is no " +
+                            "longer cached");
+                }
+
+                return configuration;
+            }
 
-        String timestampKey = configUrl + "_timestamp";
-        getBraintreeSharedPreferences(context).edit()
-                .putString(configUrl, configuration.toJson())
-                .putLong(timestampKey, System.currentTimeMillis())
-                .apply();
+            @Override
+            public void onResponse(Configuration configuration) {
+                listener.onConfigurationFetched(configuration);
+            }
+
+            @Override
+            public void failure(final Exception exception) {
+                errorListener.onResponse(exception);
+            }
+
+            @Override
+            public void onCancel() {
+                if (cancelListener != null) {
+                    cancelListener.run();
+                }
+            }
+        });
     }
 }
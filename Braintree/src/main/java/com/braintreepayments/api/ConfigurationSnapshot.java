@@ -0,0 +1,178 @@
+package com.braintreepayments.api;
+
+import android.support.annotation.Nullable;
+
+import com.braintreepayments.api.models.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link Configuration}, the time it was cached and the caching headers it was served with,
+ * stored in a small versioned binary file.
+ * Reading a snapshot is a single read of the file, only the top level fields of the
+ * {@link Configuration} are decoded and the configuration json is parsed when a section of it is
+ * first used.
+ * <p/>
+ * Snapshots that were written by a different version, for a different config url or that are
+ * truncated or corrupt are ignored.
+ */
+class ConfigurationSnapshot {
+
+    static final int MAGIC = 0x42544346;
+    static final int VERSION = 5;
+
+    private static final int MAX_SIZE = 1024 * 1024;
+
+    private final Configuration mConfiguration;
+    private final long mCachedAt;
+    private final long mMaxAge;
+    private final String mETag;
+
+    /**
+     * @param configuration the {@link Configuration}.
+     * @param cachedAt the time the {@link Configuration} was cached.
+     * @param maxAge the time in milliseconds after {@code cachedAt} the {@link Configuration} may
+     *        be used for without revalidating it.
+     * @param eTag the {@code ETag} the {@link Configuration} was served with, or {@code null}.
+     */
+    ConfigurationSnapshot(Configuration configuration, long cachedAt, long maxAge,
+            @Nullable String eTag) {
+        mConfiguration = configuration;
+        mCachedAt = cachedAt;
+        mMaxAge = maxAge;
+        mETag = eTag;
+    }
+
+    Configuration getConfiguration() {
+        return mConfiguration;
+    }
+
+    /**
+     * @return the time the {@link Configuration} was cached in milliseconds since the epoch.
+     */
+    long getCachedAt() {
+        return mCachedAt;
+    }
+
+    /**
+     * @return the time in milliseconds after {@link #getCachedAt()} the {@link Configuration} may
+     *         be used for without revalidating it.
+     */
+    long getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * @return the {@code ETag} the {@link Configuration} was served with, or {@code null}.
+     */
+    @Nullable
+    String getETag() {
+        return mETag;
+    }
+
+    /**
+     * Write this snapshot to the file. The snapshot is written to a new temporary file first and
+     * then renamed, so readers never see a partially written snapshot and concurrent writers do
+     * not interfere with each other.
+     *
+     * @param file the snapshot file.
+     * @param configUrl the config url the {@link Configuration} was fetched from.
+     */
+    void write(File file, String configUrl) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeUTF(configUrl);
+        payload.writeLong(mCachedAt);
+        payload.writeLong(mMaxAge);
+        payload.writeBoolean(mETag != null);
+        if (mETag != null) {
+            payload.writeUTF(mETag);
+        }
+        mConfiguration.writeSnapshot(payload);
+        payload.flush();
+
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        File temporaryFile = File.createTempFile("snapshot-", ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temporaryFile));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bytes.length);
+            out.writeLong(crc.getValue());
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    /**
+     * @param file the snapshot file.
+     * @param configUrl the config url the snapshot is expected to be for.
+     * @return the {@link ConfigurationSnapshot} in the file, or {@code null} if there is no
+     *         snapshot for the config url that can be read.
+     */
+    @Nullable
+    static ConfigurationSnapshot read(File file, String configUrl) {
+        long length = file.length();
+        if (length == 0 || length > MAX_SIZE) {
+            return null;
+        }
+
+        byte[] bytes = new byte[(int) length];
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            int payloadLength = in.readInt();
+            long checksum = in.readLong();
+            int offset = bytes.length - in.available();
+            if (payloadLength != in.available()) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset, payloadLength);
+            if (crc.getValue() != checksum || !configUrl.equals(in.readUTF())) {
+                return null;
+            }
+
+            long cachedAt = in.readLong();
+            long maxAge = in.readLong();
+            String eTag = in.readBoolean() ? in.readUTF() : null;
+            return new ConfigurationSnapshot(Configuration.readSnapshot(in), cachedAt, maxAge,
+                    eTag);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -14,6 +14,7 @@ import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
 import com.braintreepayments.api.interfaces.PaymentMethodNonceCallback;
 import com.braintreepayments.api.internal.AppHelper;
+import com.braintreepayments.api.internal.Deadline;
 import com.braintreepayments.api.internal.ManifestValidator;
 import com.braintreepayments.api.models.ClientToken;
 import com.braintreepayments.api.models.Configuration;
@@ -125,6 +126,7 @@ public class PayPal {
 
                 fragment.sendAnalyticsEvent("paypal.future-payments.selected");
 
+                fragment.setBrowserSwitchDeadline(null);
                 sRequest = getAuthorizationRequest(fragment.getApplicationContext(),
                         fragment.getConfiguration().getPayPal(), fragment.getAuthorization().toString());
 
@@ -205,6 +207,9 @@ public class PayPal {
                             fragment.getApplicationContext(), fragment.getConfiguration().getPayPal());
                 }
 
+                // the deadline is paused while the customer is in the PayPal app or browser
+                fragment.setBrowserSwitchDeadline(request.getDeadline());
+
                 startPayPal(fragment, PayPalOneTouchCore.getStartIntent(fragment.getApplicationContext(), sRequest));
             }
 
@@ -304,7 +309,7 @@ public class PayPal {
 
         String apiUrl = isBillingAgreement ? SETUP_BILLING_AGREEMENT_ENDPOINT : CREATE_SINGLE_PAYMENT_ENDPOINT;
         String versionedPath = "/v1/" + apiUrl;
-        fragment.getHttpClient().post(versionedPath, parameters.toString(), callback);
+        TokenizationClient.post(fragment, versionedPath, parameters.toString(), request.getDeadline(), callback);
     }
 
     private static void startPayPal(BraintreeFragment fragment, PendingRequest pendingRequest) {
@@ -384,7 +389,10 @@ public class PayPal {
     }
 
     private static void onSuccess(final BraintreeFragment fragment, Intent data, Result result) {
-        TokenizationClient.tokenize(fragment, parseResponse(result, data), new PaymentMethodNonceCallback() {
+        Deadline deadline = fragment.getBrowserSwitchDeadline();
+        fragment.setBrowserSwitchDeadline(null);
+
+        TokenizationClient.tokenize(fragment, parseResponse(result, data), deadline, new PaymentMethodNonceCallback() {
             @Override
             public void success(PaymentMethodNonce paymentMethodNonce) {
                 fragment.postCallback(paymentMethodNonce);
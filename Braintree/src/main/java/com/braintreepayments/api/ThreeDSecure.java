@@ -8,6 +8,7 @@ import com.braintreepayments.api.exceptions.ErrorWithResponse;
 import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
 import com.braintreepayments.api.interfaces.PaymentMethodNonceCallback;
+import com.braintreepayments.api.internal.Deadline;
 import com.braintreepayments.api.internal.ManifestValidator;
 import com.braintreepayments.api.models.CardBuilder;
 import com.braintreepayments.api.models.Configuration;
@@ -50,10 +51,28 @@ public class ThreeDSecure {
      */
     public static void performVerification(final BraintreeFragment fragment, final CardBuilder cardBuilder,
             final String amount) {
-        TokenizationClient.tokenize(fragment, cardBuilder, new PaymentMethodNonceCallback() {
+        performVerification(fragment, cardBuilder, amount, null);
+    }
+
+    /**
+     * Tokenize the card and perform a 3D Secure verification of the resulting nonce, as in
+     * {@link #performVerification(BraintreeFragment, CardBuilder, String)}, with both requests
+     * bounded by a single {@link Deadline}. If the deadline passes before either request is made,
+     * {@link com.braintreepayments.api.exceptions.DeadlineExceededException} is posted to the
+     * fragment's error listener. Time the customer spends authenticating is not counted.
+     *
+     * @param fragment the {@link BraintreeFragment} backing the http request.
+     * @param cardBuilder The cardBuilder created from raw details.
+     * @param amount The amount of the transaction in the current merchant account's currency
+     * @param deadline the {@link Deadline} of the tokenization and lookup, or {@code null} for no
+     *                 deadline.
+     */
+    public static void performVerification(final BraintreeFragment fragment, final CardBuilder cardBuilder,
+            final String amount, final Deadline deadline) {
+        TokenizationClient.tokenize(fragment, cardBuilder, deadline, new PaymentMethodNonceCallback() {
             @Override
             public void success(PaymentMethodNonce paymentMethodNonce) {
-                performVerification(fragment, paymentMethodNonce.getNonce(), amount);
+                performVerification(fragment, paymentMethodNonce.getNonce(), amount, deadline);
             }
 
             @Override
@@ -88,6 +107,21 @@ public class ThreeDSecure {
      * @param amount The amount of the transaction in the current merchant account's currency.
      */
     public static void performVerification(final BraintreeFragment fragment, final String nonce, final String amount) {
+        performVerification(fragment, nonce, amount, null);
+    }
+
+    /**
+     * Perform a 3D Secure verification of the nonce, as in
+     * {@link #performVerification(BraintreeFragment, String, String)}, with the lookup request
+     * bounded by the given {@link Deadline}.
+     *
+     * @param fragment the {@link BraintreeFragment} backing the http request.
+     * @param nonce The nonce that represents a card to perform a 3D Secure verification against.
+     * @param amount The amount of the transaction in the current merchant account's currency.
+     * @param deadline the {@link Deadline} of the lookup, or {@code null} for no deadline.
+     */
+    public static void performVerification(final BraintreeFragment fragment, final String nonce, final String amount,
+            final Deadline deadline) {
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
             public void onConfigurationFetched(Configuration configuration) {
@@ -108,9 +142,9 @@ public class ThreeDSecure {
                             .put("merchantAccountId", configuration.getMerchantAccountId())
                             .put("amount", amount);
 
-                    fragment.getHttpClient().post(TokenizationClient.versionedPath(
+                    TokenizationClient.post(fragment, TokenizationClient.versionedPath(
                             TokenizationClient.PAYMENT_METHOD_ENDPOINT + "/" + nonce +
-                                    "/three_d_secure/lookup"), params.toString(), new HttpResponseCallback() {
+                                    "/three_d_secure/lookup"), params.toString(), deadline, new HttpResponseCallback() {
                         @Override
                         public void success(String responseBody) {
                             try {
@@ -5,12 +5,13 @@ import com.braintreepayments.api.interfaces.ConfigurationListener;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
 import com.braintreepayments.api.interfaces.PaymentMethodNonceCallback;
 import com.braintreepayments.api.interfaces.PaymentMethodNoncesUpdatedListener;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
+import com.braintreepayments.api.internal.Deadline;
 import com.braintreepayments.api.models.Configuration;
 import com.braintreepayments.api.models.PaymentMethodBuilder;
 import com.braintreepayments.api.models.PaymentMethodNonce;
 
-import org.json.JSONException;
-
+import java.io.Reader;
 import java.util.List;
 
 import static com.braintreepayments.api.models.PaymentMethodNonce.parsePaymentMethodNonces;
@@ -31,14 +32,16 @@ class TokenizationClient {
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
             public void onConfigurationFetched(Configuration configuration) {
-                fragment.getHttpClient().get(versionedPath(PAYMENT_METHOD_ENDPOINT), new HttpResponseCallback() {
+                fragment.getHttpClient().get(versionedPath(PAYMENT_METHOD_ENDPOINT),
+                        new StreamingHttpResponseCallback<List<PaymentMethodNonce>>() {
                     @Override
-                    public void success(String responseBody) {
-                        try {
-                            fragment.postCallback(parsePaymentMethodNonces(responseBody));
-                        } catch (JSONException e) {
-                            fragment.postCallback(e);
-                        }
+                    public List<PaymentMethodNonce> decode(Reader responseBody) throws Exception {
+                        return parsePaymentMethodNonces(readString(responseBody));
+                    }
+
+                    @Override
+                    public void onResponse(List<PaymentMethodNonce> paymentMethodNonces) {
+                        fragment.postCallback(paymentMethodNonces);
                     }
 
                     @Override
@@ -67,23 +70,39 @@ class TokenizationClient {
      */
     static void tokenize(final BraintreeFragment fragment, final PaymentMethodBuilder paymentMethodBuilder,
             final PaymentMethodNonceCallback callback) {
+        tokenize(fragment, paymentMethodBuilder, null, callback);
+    }
+
+    /**
+     * Create a {@link PaymentMethodNonce} in the Braintree Gateway before the given {@link Deadline}.
+     * <p/>
+     * If the {@link Deadline} passes before the request is made, {@link PaymentMethodNonceCallback#failure(Exception)}
+     * will be called with a {@link com.braintreepayments.api.exceptions.DeadlineExceededException}.
+     *
+     * @param paymentMethodBuilder {@link PaymentMethodBuilder} for the {@link PaymentMethodNonce}
+     *        to be created.
+     * @param deadline the {@link Deadline} of the operation this tokenization is a part of, or
+     *        {@code null} for no deadline.
+     */
+    static void tokenize(final BraintreeFragment fragment, final PaymentMethodBuilder paymentMethodBuilder,
+            final Deadline deadline, final PaymentMethodNonceCallback callback) {
         paymentMethodBuilder.setSessionId(fragment.getSessionId());
 
         fragment.waitForConfiguration(new ConfigurationListener() {
             @Override
             public void onConfigurationFetched(Configuration configuration) {
-                fragment.getHttpClient().post(TokenizationClient.versionedPath(
+                post(fragment, TokenizationClient.versionedPath(
                         TokenizationClient.PAYMENT_METHOD_ENDPOINT + "/" + paymentMethodBuilder.getApiPath()),
-                        paymentMethodBuilder.build(), new HttpResponseCallback() {
+                        paymentMethodBuilder.build(fragment.getAuthorization()), deadline, new StreamingHttpResponseCallback<PaymentMethodNonce>() {
+                            @Override
+                            public PaymentMethodNonce decode(Reader responseBody) throws Exception {
+                                return parsePaymentMethodNonces(readString(responseBody),
+                                        paymentMethodBuilder.getResponsePaymentMethodType());
+                            }
+
                             @Override
-                            public void success(String responseBody) {
-                                try {
-                                    PaymentMethodNonce paymentMethodNonce = parsePaymentMethodNonces(responseBody,
-                                            paymentMethodBuilder.getResponsePaymentMethodType());
-                                    callback.success(paymentMethodNonce);
-                                } catch (JSONException e) {
-                                    callback.failure(e);
-                                }
+                            public void onResponse(PaymentMethodNonce paymentMethodNonce) {
+                                callback.success(paymentMethodNonce);
                             }
 
                             @Override
@@ -95,6 +114,19 @@ class TokenizationClient {
         });
     }
 
+    /**
+     * Make a HTTP POST request with the {@link BraintreeFragment}'s http client, bounded by the
+     * {@link Deadline} when one is given.
+     */
+    static void post(BraintreeFragment fragment, String path, String data, Deadline deadline,
+            HttpResponseCallback callback) {
+        if (deadline == null) {
+            fragment.getHttpClient().post(path, data, callback);
+        } else {
+            fragment.getHttpClient().post(path, data, deadline, callback);
+        }
+    }
+
     static String versionedPath(String path) {
         return "/v1/" + path;
     }
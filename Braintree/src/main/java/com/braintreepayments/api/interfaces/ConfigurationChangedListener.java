@@ -0,0 +1,20 @@
+package com.braintreepayments.api.interfaces;
+
+import com.braintreepayments.api.models.Configuration;
+
+/**
+ * Interface that defines a callback for changes to a
+ * {@link com.braintreepayments.api.models.Configuration} that was served stale.
+ */
+public interface ConfigurationChangedListener extends BraintreeListener {
+
+    /**
+     * {@link #onConfigurationChanged(Configuration)} will be called when an expired
+     * {@link com.braintreepayments.api.models.Configuration} was used and the one fetched to replace
+     * it is different. The new {@link com.braintreepayments.api.models.Configuration} is already in
+     * use when this is called.
+     *
+     * @see com.braintreepayments.api.BraintreeFragment#setMaxConfigurationStaleness(long)
+     */
+    void onConfigurationChanged(Configuration configuration);
+}
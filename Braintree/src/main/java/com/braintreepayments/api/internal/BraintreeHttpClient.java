@@ -15,7 +15,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
 
 import javax.net.ssl.SSLException;
 
@@ -26,11 +28,22 @@ public class BraintreeHttpClient extends HttpClient {
 
     private static final String AUTHORIZATION_FINGERPRINT_KEY = "authorizationFingerprint";
     private static final String TOKENIZATION_KEY_HEADER_KEY = "Client-Key";
+    private static final String PAYMENT_METHODS_PATH = "/v1/payment_methods";
+    private static final String CONFIGURATION_PATH = "/v1/configuration";
+    private static final String THREE_D_SECURE_LOOKUP_PATH = "/three_d_secure/lookup";
+    private static final String PAYPAL_HERMES_PATH = "/v1/paypal_hermes/";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private final Authorization mAuthorization;
+    private final String mAuthorizedBodyPrefix;
+    private final byte[] mAuthorizedBodyPrefixBytes;
 
     public BraintreeHttpClient(Authorization authorization) {
         setUserAgent(getUserAgent());
+        setReuseConnections(true);
+        setCoalesceRequests(true);
+        setRetryPolicy(new RetryPolicy());
+        setCircuitBreaker(CircuitBreaker.getDefault());
 
         try {
             setSSLSocketFactory(
@@ -40,6 +53,14 @@ public class BraintreeHttpClient extends HttpClient {
         }
 
         mAuthorization = authorization;
+        if (authorization instanceof ClientToken) {
+            mAuthorizedBodyPrefix = "{\"" + AUTHORIZATION_FINGERPRINT_KEY + "\":" +
+                    JSONObject.quote(((ClientToken) authorization).getAuthorizationFingerprint());
+            mAuthorizedBodyPrefixBytes = mAuthorizedBodyPrefix.getBytes(UTF_8);
+        } else {
+            mAuthorizedBodyPrefix = null;
+            mAuthorizedBodyPrefixBytes = null;
+        }
     }
 
     /**
@@ -63,21 +84,50 @@ public class BraintreeHttpClient extends HttpClient {
             return;
         }
 
-        Uri uri;
-        if (path.startsWith("http")) {
-            uri = Uri.parse(path);
-        } else {
-            uri = Uri.parse(mBaseUrl + path);
+        super.get(getAuthorizedUrl(path), callback);
+    }
+
+    /**
+     * Make a HTTP GET request to Braintree using the base url, path and authorization provided
+     * that must finish before the given {@link Deadline}. If the path is a full url, it will be
+     * used instead of the previously provided url.
+     *
+     * @param path The path or url to request from the server via GET
+     * @param deadline The {@link Deadline} of the request, or {@code null} for no deadline.
+     * @param callback The {@link HttpResponseCallback} to receive the response or error.
+     */
+    @Override
+    public void get(String path, Deadline deadline, HttpResponseCallback callback) {
+        if (deadline == null) {
+            get(path, callback);
+            return;
         }
 
-        if (mAuthorization instanceof ClientToken) {
-            uri = uri.buildUpon()
-                    .appendQueryParameter(AUTHORIZATION_FINGERPRINT_KEY,
-                            ((ClientToken) mAuthorization).getAuthorizationFingerprint())
-                    .build();
+        if (path == null) {
+            postCallbackOnMainThread(callback, new IllegalArgumentException("Path cannot be null"));
+            return;
+        }
+
+        super.get(getAuthorizedUrl(path), deadline, callback);
+    }
+
+    /**
+     * Make a HTTP GET request to Braintree on the calling thread using the base url, path and
+     * authorization provided. If the path is a full url, it will be used instead of the
+     * previously provided url.
+     *
+     * @param path The path or url to request from the server via GET
+     * @return the body of the response.
+     * @throws Exception the same exceptions that would be sent to
+     * {@link HttpResponseCallback#failure(Exception)} by {@link #get(String, HttpResponseCallback)}.
+     */
+    @Override
+    public String get(String path) throws Exception {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
         }
 
-        super.get(uri.toString(), callback);
+        return super.get(getAuthorizedUrl(path));
     }
 
     /**
@@ -91,19 +141,160 @@ public class BraintreeHttpClient extends HttpClient {
     @Override
     public void post(String path, String data, HttpResponseCallback callback) {
         try {
-            if (mAuthorization instanceof ClientToken) {
-                data = new JSONObject(data)
-                        .put(AUTHORIZATION_FINGERPRINT_KEY,
-                                ((ClientToken) mAuthorization).getAuthorizationFingerprint())
-                        .toString();
-            }
+            super.post(path, getAuthorizedBody(data), callback);
+        } catch (JSONException e) {
+            postCallbackOnMainThread(callback, e);
+        }
+    }
+
+    /**
+     * Make a HTTP POST request to Braintree using the base url, path and authorization provided
+     * that must finish before the given {@link Deadline}. If the path is a full url, it will be
+     * used instead of the previously provided url.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The body of the POST request
+     * @param deadline The {@link Deadline} of the request, or {@code null} for no deadline.
+     * @param callback The {@link HttpResponseCallback} to receive the response or error.
+     */
+    @Override
+    public void post(String path, String data, Deadline deadline, HttpResponseCallback callback) {
+        if (deadline == null) {
+            post(path, data, callback);
+            return;
+        }
 
-            super.post(path, data, callback);
+        try {
+            super.post(path, getAuthorizedBody(data), deadline, callback);
         } catch (JSONException e) {
             postCallbackOnMainThread(callback, e);
         }
     }
 
+    /**
+     * Make a HTTP POST request to Braintree using the base url, path and authorization provided.
+     * If the path is a full url, it will be used instead of the previously provided url.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The UTF-8 encoded body of the POST request
+     * @param callback The {@link HttpResponseCallback} to receive the response or error.
+     */
+    @Override
+    public void post(String path, byte[] data, HttpResponseCallback callback) {
+        try {
+            super.post(path, getAuthorizedBody(data), callback);
+        } catch (JSONException | UnsupportedEncodingException e) {
+            postCallbackOnMainThread(callback, e);
+        }
+    }
+
+    /**
+     * Make a HTTP POST request to Braintree on the calling thread using the base url, path and
+     * authorization provided. If the path is a full url, it will be used instead of the
+     * previously provided url.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The UTF-8 encoded body of the POST request
+     * @return the body of the response.
+     * @throws Exception the same exceptions that would be sent to
+     * {@link HttpResponseCallback#failure(Exception)} by
+     * {@link #post(String, byte[], HttpResponseCallback)}.
+     */
+    @Override
+    public String post(String path, byte[] data) throws Exception {
+        return super.post(path, getAuthorizedBody(data));
+    }
+
+    private String getAuthorizedUrl(String path) {
+        Uri uri;
+        if (path.startsWith("http")) {
+            uri = Uri.parse(path);
+        } else {
+            uri = Uri.parse(mBaseUrl + path);
+        }
+
+        if (mAuthorization instanceof ClientToken) {
+            uri = uri.buildUpon()
+                    .appendQueryParameter(AUTHORIZATION_FINGERPRINT_KEY,
+                            ((ClientToken) mAuthorization).getAuthorizationFingerprint())
+                    .build();
+        }
+
+        return uri.toString();
+    }
+
+    /**
+     * Adds the authorization fingerprint to a JSON body when using a {@link ClientToken}. Bodies
+     * that already start with the fingerprint, such as those built by
+     * {@link com.braintreepayments.api.models.PaymentMethodBuilder#build(Authorization)}, are sent
+     * as is without being parsed.
+     */
+    private String getAuthorizedBody(String data) throws JSONException {
+        if (mAuthorizedBodyPrefix != null && !data.startsWith(mAuthorizedBodyPrefix)) {
+            return new JSONObject(data)
+                    .put(AUTHORIZATION_FINGERPRINT_KEY,
+                            ((ClientToken) mAuthorization).getAuthorizationFingerprint())
+                    .toString();
+        }
+
+        return data;
+    }
+
+    private byte[] getAuthorizedBody(byte[] data)
+            throws JSONException, UnsupportedEncodingException {
+        if (mAuthorizedBodyPrefixBytes == null || startsWith(data, mAuthorizedBodyPrefixBytes)) {
+            return data;
+        }
+
+        return getAuthorizedBody(new String(data, "UTF-8")).getBytes("UTF-8");
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    protected String getRequestKey(String url) {
+        if (mAuthorization instanceof TokenizationKey) {
+            return url + " " + mAuthorization.toString();
+        }
+
+        return url;
+    }
+
+    @Override
+    protected String getEndpointClass(String method, String url) {
+        if (url.contains(THREE_D_SECURE_LOOKUP_PATH)) {
+            return RequestTiming.ENDPOINT_THREE_D_SECURE_LOOKUP;
+        } else if (url.contains(CONFIGURATION_PATH)) {
+            return RequestTiming.ENDPOINT_CONFIGURATION;
+        } else if ("POST".equals(method) && url.contains(PAYMENT_METHODS_PATH)) {
+            return RequestTiming.ENDPOINT_TOKENIZE;
+        }
+
+        return super.getEndpointClass(method, url);
+    }
+
+    @Override
+    protected RequestPriority getRequestPriority(String method, String url) {
+        if (url.contains(PAYMENT_METHODS_PATH) || url.contains(CONFIGURATION_PATH) ||
+                url.contains(PAYPAL_HERMES_PATH)) {
+            return RequestPriority.CRITICAL;
+        }
+
+        return super.getRequestPriority(method, url);
+    }
+
     @Override
     protected HttpURLConnection init(String url) throws IOException {
         HttpURLConnection connection = super.init(url);
@@ -1,11 +1,21 @@
 package com.braintreepayments.api.models;
 
+import android.support.annotation.VisibleForTesting;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Contains the remote configuration for the Braintree Android SDK.
+ * <p/>
+ * Instances are immutable. Challenges and feature toggles are parsed into flags when the
+ * configuration is created, the PayPal, Android Pay, Venmo and analytics configurations are created
+ * the first time they are requested.
  */
 public class Configuration {
 
@@ -21,19 +31,43 @@ public class Configuration {
     private static final String THREE_D_SECURE_ENABLED_KEY = "threeDSecureEnabled";
     private static final String PAY_WITH_VENMO_KEY = "payWithVenmo";
 
+    private static final String CVV_CHALLENGE = "cvv";
+    private static final String POSTAL_CODE_CHALLENGE = "postal_code";
+
+    private static final int FLAG_CVV_CHALLENGE = 1;
+    private static final int FLAG_POSTAL_CODE_CHALLENGE = 1 << 1;
+    private static final int FLAG_PAYPAL_ENABLED = 1 << 2;
+    private static final int FLAG_THREE_D_SECURE_ENABLED = 1 << 3;
 
-    private String mConfigurationString;
-    private String mClientApiUrl;
-    private String[] mChallenges;
-    private String mEnvironment;
-    private String mMerchantId;
-    private String mMerchantAccountId;
-    private AnalyticsConfiguration mAnalyticsConfiguration;
-    private boolean mPaypalEnabled;
-    private PayPalConfiguration mPayPalConfiguration;
-    private AndroidPayConfiguration mAndroidPayConfiguration;
-    private boolean mThreeDSecureEnabled;
-    private VenmoConfiguration mVenmoConfiguration;
+    private final String mConfigurationString;
+    private final String mClientApiUrl;
+    private final String mEnvironment;
+    private final String mMerchantId;
+    private final String mMerchantAccountId;
+    private final int mFlags;
+
+    // null until a section is needed when the configuration was read from a snapshot
+    private volatile JSONObject mJson;
+
+    @VisibleForTesting
+    volatile AnalyticsConfiguration mAnalyticsConfiguration;
+    @VisibleForTesting
+    volatile PayPalConfiguration mPayPalConfiguration;
+    @VisibleForTesting
+    volatile AndroidPayConfiguration mAndroidPayConfiguration;
+    @VisibleForTesting
+    volatile VenmoConfiguration mVenmoConfiguration;
+
+    private Configuration(String configurationString, String clientApiUrl, String environment,
+            String merchantId, String merchantAccountId, int flags, JSONObject json) {
+        mConfigurationString = configurationString;
+        mClientApiUrl = clientApiUrl;
+        mEnvironment = environment;
+        mMerchantId = merchantId;
+        mMerchantAccountId = merchantAccountId;
+        mFlags = flags;
+        mJson = json;
+    }
 
     /**
      * Creates a new {@link com.braintreepayments.api.models.Configuration} instance from a json string.
@@ -42,25 +76,56 @@ public class Configuration {
      * @return {@link com.braintreepayments.api.models.Configuration} instance.
      */
     public static Configuration fromJson(String configurationString) throws JSONException {
-        Configuration configuration = new Configuration();
-        configuration.mConfigurationString = configurationString;
         JSONObject json = new JSONObject(configurationString);
 
-        configuration.mClientApiUrl = json.getString(CLIENT_API_URL_KEY);
-        configuration.mChallenges = parseJsonChallenges(json.optJSONArray(CHALLENGES_KEY));
-        configuration.mEnvironment = json.getString(ENVIRONMENT_KEY);
-        configuration.mPaypalEnabled = json.optBoolean(PAYPAL_ENABLED_KEY, false);
-        configuration.mPayPalConfiguration = PayPalConfiguration.fromJson(json.optJSONObject(PAYPAL_KEY));
-        configuration.mAndroidPayConfiguration = AndroidPayConfiguration.fromJson(
-                json.optJSONObject(ANDROID_PAY_KEY));
-        configuration.mThreeDSecureEnabled = json.optBoolean(THREE_D_SECURE_ENABLED_KEY, false);
-        configuration.mMerchantId = json.getString(MERCHANT_ID_KEY);
-        configuration.mMerchantAccountId = json.optString(MERCHANT_ACCOUNT_ID_KEY, null);
-        configuration.mAnalyticsConfiguration = AnalyticsConfiguration.fromJson(json.optJSONObject(ANALYTICS_KEY));
-        configuration.mVenmoConfiguration = VenmoConfiguration
-                .fromJson(json.optJSONObject(PAY_WITH_VENMO_KEY));
+        int flags = parseJsonChallenges(json.optJSONArray(CHALLENGES_KEY));
+        if (json.optBoolean(PAYPAL_ENABLED_KEY, false)) {
+            flags |= FLAG_PAYPAL_ENABLED;
+        }
+        if (json.optBoolean(THREE_D_SECURE_ENABLED_KEY, false)) {
+            flags |= FLAG_THREE_D_SECURE_ENABLED;
+        }
+
+        return new Configuration(configurationString,
+                json.getString(CLIENT_API_URL_KEY),
+                json.getString(ENVIRONMENT_KEY),
+                json.getString(MERCHANT_ID_KEY),
+                json.optString(MERCHANT_ACCOUNT_ID_KEY, null),
+                flags,
+                json);
+    }
+
+    /**
+     * Reads a {@link Configuration} written by {@link #writeSnapshot(DataOutput)} for the SDK's
+     * configuration cache. Only the top level fields are decoded, the configuration string is
+     * parsed when the PayPal, Android Pay, Venmo or analytics configuration is first requested.
+     */
+    public static Configuration readSnapshot(DataInput in) throws IOException {
+        String configurationString = readString(in);
+        if (configurationString == null) {
+            throw new IOException("Snapshot has no configuration");
+        }
 
-        return configuration;
+        return new Configuration(configurationString,
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                in.readInt(),
+                null);
+    }
+
+    /**
+     * Writes the configuration string and its top level fields for the SDK's configuration cache,
+     * so {@link #readSnapshot(DataInput)} does not need to parse the configuration string.
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        writeString(out, mConfigurationString);
+        writeString(out, mClientApiUrl);
+        writeString(out, mEnvironment);
+        writeString(out, mMerchantId);
+        writeString(out, mMerchantAccountId);
+        out.writeInt(mFlags);
     }
 
     public String toJson() {
@@ -78,14 +143,14 @@ public class Configuration {
      * @return {@code true} if cvv is required for card transactions, {@code false} otherwise.
      */
     public boolean isCvvChallengePresent() {
-        return isChallengePresent("cvv");
+        return isFlagSet(FLAG_CVV_CHALLENGE);
     }
 
     /**
      * @return {@code true} if postal code is required for card transactions, {@code false} otherwise.
      */
     public boolean isPostalCodeChallengePresent() {
-        return isChallengePresent("postal_code");
+        return isFlagSet(FLAG_POSTAL_CODE_CHALLENGE);
     }
 
     /**
@@ -100,13 +165,17 @@ public class Configuration {
      *         {@code false} otherwise.
      */
     public boolean isPayPalEnabled() {
-        return (mPaypalEnabled && mPayPalConfiguration.isEnabled());
+        return (isFlagSet(FLAG_PAYPAL_ENABLED) && getPayPal().isEnabled());
     }
 
     /**
      * @return instance of {@link com.braintreepayments.api.models.PayPalConfiguration}.
      */
     public PayPalConfiguration getPayPal() {
+        if (mPayPalConfiguration == null) {
+            mPayPalConfiguration = PayPalConfiguration.fromJson(getSection(PAYPAL_KEY));
+        }
+
         return mPayPalConfiguration;
     }
 
@@ -114,6 +183,10 @@ public class Configuration {
      * @return instance of {@link AndroidPayConfiguration}.
      */
     public AndroidPayConfiguration getAndroidPay() {
+        if (mAndroidPayConfiguration == null) {
+            mAndroidPayConfiguration = AndroidPayConfiguration.fromJson(getSection(ANDROID_PAY_KEY));
+        }
+
         return mAndroidPayConfiguration;
     }
 
@@ -122,7 +195,7 @@ public class Configuration {
      *         {@code false} otherwise.
      */
     public boolean isThreeDSecureEnabled() {
-        return mThreeDSecureEnabled;
+        return isFlagSet(FLAG_THREE_D_SECURE_ENABLED);
     }
 
     /**
@@ -143,6 +216,10 @@ public class Configuration {
      * @return instance of {@link com.braintreepayments.api.models.AnalyticsConfiguration}.
      */
     public AnalyticsConfiguration getAnalytics() {
+        if (mAnalyticsConfiguration == null) {
+            mAnalyticsConfiguration = AnalyticsConfiguration.fromJson(getSection(ANALYTICS_KEY));
+        }
+
         return mAnalyticsConfiguration;
     }
 
@@ -150,29 +227,73 @@ public class Configuration {
      * @return instance of {@link VenmoConfiguration}
      */
     public VenmoConfiguration getPayWithVenmo() {
+        if (mVenmoConfiguration == null) {
+            mVenmoConfiguration = VenmoConfiguration.fromJson(getSection(PAY_WITH_VENMO_KEY));
+        }
+
         return mVenmoConfiguration;
     }
 
-    private boolean isChallengePresent(String requestedChallenge) {
-        for (String challenge : mChallenges) {
-            if (challenge.equals(requestedChallenge)) {
-                return true;
+    private boolean isFlagSet(int flag) {
+        return (mFlags & flag) != 0;
+    }
+
+    private static int parseJsonChallenges(JSONArray jsonArray) {
+        int flags = 0;
+        if (jsonArray == null) {
+            return flags;
+        }
+
+        for (int i = 0; i < jsonArray.length(); i++) {
+            String challenge = jsonArray.optString(i, "");
+            if (CVV_CHALLENGE.equals(challenge)) {
+                flags |= FLAG_CVV_CHALLENGE;
+            } else if (POSTAL_CODE_CHALLENGE.equals(challenge)) {
+                flags |= FLAG_POSTAL_CODE_CHALLENGE;
             }
         }
 
-        return false;
+        return flags;
     }
 
-    private static String[] parseJsonChallenges(JSONArray jsonArray) {
-        if (jsonArray == null) {
-            return new String[0];
+    /**
+     * @return the object value of the top level {@code key}, or {@code null} if there is none. The
+     *         configuration string is parsed the first time a section is needed when it was read
+     *         from a snapshot.
+     */
+    private JSONObject getSection(String key) {
+        JSONObject json = mJson;
+        if (json == null) {
+            try {
+                json = new JSONObject(mConfigurationString);
+            } catch (JSONException e) {
+                // the string was parsed by fromJson before it was written to the snapshot
+                throw new IllegalStateException("Configuration is not valid json", e);
+            }
+            mJson = json;
         }
 
-        String[] challenges = new String[jsonArray.length()];
-        for (int i = 0; i < jsonArray.length(); i++) {
-            challenges[i] = jsonArray.optString(i, "");
+        return json.optJSONObject(key);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
         }
 
-        return challenges;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
     }
 }
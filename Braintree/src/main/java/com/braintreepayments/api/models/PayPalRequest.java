@@ -1,5 +1,7 @@
 package com.braintreepayments.api.models;
 
+import com.braintreepayments.api.internal.Deadline;
+
 /**
  * Represents the parameters that are needed to start a Checkout with PayPal
  *
@@ -17,6 +19,7 @@ public class PayPalRequest {
     private String mBillingAgreementDescription;
     private boolean mShippingAddressRequired;
     private PostalAddress mShippingAddressOverride;
+    private Deadline mDeadline;
 
     /**
      * Constructs a description of a PayPal checkout for Single Payment and Billing Agreements.
@@ -96,6 +99,18 @@ public class PayPalRequest {
         return this;
     }
 
+    /**
+     * Optional: A {@link Deadline} for the requests made to Braintree during the flow. Creating the
+     * payment resource and tokenizing the result share the deadline, the time the customer spends
+     * in the PayPal app or browser is not counted against it.
+     *
+     * @param deadline the {@link Deadline} of the flow's requests.
+     */
+    public PayPalRequest deadline(Deadline deadline) {
+        mDeadline = deadline;
+        return this;
+    }
+
     public String getAmount() {
         return mAmount;
     }
@@ -119,4 +134,8 @@ public class PayPalRequest {
     public PostalAddress getShippingAddressOverride() {
         return mShippingAddressOverride;
     }
+
+    public Deadline getDeadline() {
+        return mDeadline;
+    }
 }
@@ -18,6 +18,7 @@ public abstract class PaymentMethodBuilder<T> {
     private static final String OPTIONS_KEY = "options";
     private static final String VALIDATE_KEY = "validate";
     private static final String SESSION_ID_KEY = "sessionId";
+    private static final String AUTHORIZATION_FINGERPRINT_KEY = "authorizationFingerprint";
 
     protected final JSONObject mJson;
     protected final JSONObject mPaymentMethodNonceJson;
@@ -106,6 +107,34 @@ public abstract class PaymentMethodBuilder<T> {
         return mJson.toString();
     }
 
+    /**
+     * @param authorization the {@link Authorization} the request will be made with.
+     * @return String representation of {@link PaymentMethodNonce} for API use. When the
+     * authorization is a {@link ClientToken} the authorization fingerprint is written as the first
+     * field, so {@link com.braintreepayments.api.internal.BraintreeHttpClient} does not need to
+     * parse the body again to add it.
+     */
+    public String build(Authorization authorization) {
+        String json = build();
+        if (!(authorization instanceof ClientToken)) {
+            return json;
+        }
+
+        String fingerprint = ((ClientToken) authorization).getAuthorizationFingerprint();
+        StringBuilder body = new StringBuilder(json.length() + fingerprint.length() + 32)
+                .append("{\"")
+                .append(AUTHORIZATION_FINGERPRINT_KEY)
+                .append("\":")
+                .append(JSONObject.quote(fingerprint));
+        if (json.length() > 2) {
+            body.append(',').append(json, 1, json.length());
+        } else {
+            body.append('}');
+        }
+
+        return body.toString();
+    }
+
     protected String getDefaultSource() {
         return "form";
     }
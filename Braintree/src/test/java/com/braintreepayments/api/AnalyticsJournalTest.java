@@ -0,0 +1,166 @@
+package com.braintreepayments.api;
+
+import com.braintreepayments.api.AnalyticsManager.AnalyticsRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class AnalyticsJournalTest {
+
+    private static final String CONFIG_URL = "https://example.com/configuration";
+
+    private File mFile;
+
+    @Before
+    public void setup() throws IOException {
+        mFile = File.createTempFile("analytics", ".journal");
+    }
+
+    @After
+    public void teardown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void getEvents_returnsEventsAppendedByAnotherInstance() {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE);
+        journal.append(new AnalyticsRequest("custom", "event1", 1000, "session", CONFIG_URL));
+        journal.append(new AnalyticsRequest("dropin", "event2", 2000, null, CONFIG_URL));
+
+        List<AnalyticsRequest> events =
+                new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE).getEvents();
+
+        assertEquals(2, events.size());
+        assertEquals("android.custom.event1", events.get(0).getEvent());
+        assertEquals("custom", events.get(0).getIntegrationType());
+        assertEquals(1000, events.get(0).getTimestamp());
+        assertEquals("session", events.get(0).getSessionId());
+        assertEquals(CONFIG_URL, events.get(0).getConfigUrl());
+        assertEquals("android.dropin.event2", events.get(1).getEvent());
+        assertNull(events.get(1).getSessionId());
+    }
+
+    @Test
+    public void remove_deletesEventsFromDisk() {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE);
+        journal.append(new AnalyticsRequest("custom", "event1", 1000, "session", CONFIG_URL));
+        journal.append(new AnalyticsRequest("custom", "event2", 2000, "session", CONFIG_URL));
+
+        journal.remove(journal.takeBatch(1));
+
+        List<AnalyticsRequest> events =
+                new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE).getEvents();
+        assertEquals(1, events.size());
+        assertEquals("android.custom.event2", events.get(0).getEvent());
+    }
+
+    @Test
+    public void takeBatch_doesNotReturnEventsThatAreInFlight() {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE);
+        for (int i = 0; i < 3; i++) {
+            journal.append(new AnalyticsRequest("custom", "event" + i, 1000, "session",
+                    CONFIG_URL));
+        }
+
+        assertEquals(2, journal.takeBatch(2).size());
+        assertEquals(1, journal.getPendingCount());
+        List<AnalyticsRequest> batch = journal.takeBatch(2);
+        assertEquals(1, batch.size());
+        assertEquals("android.custom.event2", batch.get(0).getEvent());
+        assertTrue(journal.takeBatch(2).isEmpty());
+        assertEquals(3, journal.getEvents().size());
+    }
+
+    @Test
+    public void release_makesEventsAvailableAgain() {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE);
+        journal.append(new AnalyticsRequest("custom", "event", 1000, "session", CONFIG_URL));
+
+        journal.release(journal.takeBatch(10));
+
+        assertEquals(1, journal.getPendingCount());
+        assertEquals(1, journal.takeBatch(10).size());
+    }
+
+    @Test
+    public void append_dropsOldestEventsWhenFull() {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, 1024);
+        for (int i = 0; i < 100; i++) {
+            journal.append(new AnalyticsRequest("custom", "event" + i, 1000, "session",
+                    CONFIG_URL));
+        }
+
+        List<AnalyticsRequest> events = new AnalyticsJournal(mFile, 1024).getEvents();
+        assertTrue(mFile.length() <= 1024);
+        assertTrue(events.size() < 100);
+        assertEquals("android.custom.event99", events.get(events.size() - 1).getEvent());
+    }
+
+    @Test
+    public void getEvents_keepsIntactEventsBeforeATruncatedEvent() throws IOException {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE);
+        journal.append(new AnalyticsRequest("custom", "event1", 1000, "session", CONFIG_URL));
+        journal.append(new AnalyticsRequest("custom", "event2", 2000, "session", CONFIG_URL));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+
+        List<AnalyticsRequest> events =
+                new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE).getEvents();
+
+        assertEquals(1, events.size());
+        assertEquals("android.custom.event1", events.get(0).getEvent());
+    }
+
+    @Test
+    public void getEvents_returnsNothingForCorruptJournal() throws IOException {
+        AnalyticsJournal journal = new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE);
+        journal.append(new AnalyticsRequest("custom", "event", 1000, "session", CONFIG_URL));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length() - 1);
+        int lastByte = file.read();
+        file.seek(file.length() - 1);
+        file.write(lastByte ^ 0xFF);
+        file.close();
+
+        assertTrue(new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE).getEvents().isEmpty());
+    }
+
+    @Test
+    public void getEvents_dropsEventsWrittenInAnOlderFormat() throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeUTF("custom");
+        payload.writeUTF("event");
+        payload.writeLong(1000);
+        payload.writeBoolean(false);
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        DataOutputStream file = new DataOutputStream(new FileOutputStream(mFile));
+        file.writeInt(bytes.length);
+        file.writeLong(crc.getValue());
+        file.write(bytes);
+        file.close();
+
+        assertTrue(new AnalyticsJournal(mFile, AnalyticsJournal.MAX_SIZE).getEvents().isEmpty());
+        assertEquals(0, mFile.length());
+    }
+}
@@ -0,0 +1,197 @@
+package com.braintreepayments.api;
+
+import com.braintreepayments.api.models.Configuration;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.braintreepayments.testutils.FixturesHelper.stringFromFixture;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class ConfigurationSnapshotTest {
+
+    private static final String CONFIG_URL = "https://api.braintreegateway.com/config";
+
+    private File mFile;
+
+    @Before
+    public void setup() throws IOException {
+        mFile = File.createTempFile("configuration", ".snapshot");
+    }
+
+    @After
+    public void teardown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void read_returnsWrittenConfigurationAndTimestamp() throws IOException, JSONException {
+        Configuration configuration = Configuration.fromJson(
+                stringFromFixture("configuration_with_multiple_challenges.json"));
+        write(configuration);
+
+        ConfigurationSnapshot snapshot = ConfigurationSnapshot.read(mFile, CONFIG_URL);
+
+        assertNotNull(snapshot);
+        assertEquals(1000, snapshot.getCachedAt());
+        Configuration readConfiguration = snapshot.getConfiguration();
+        assertEquals(configuration.toJson(), readConfiguration.toJson());
+        assertEquals(configuration.getClientApiUrl(), readConfiguration.getClientApiUrl());
+        assertEquals(configuration.getEnvironment(), readConfiguration.getEnvironment());
+        assertEquals(configuration.getMerchantId(), readConfiguration.getMerchantId());
+        assertEquals(configuration.getMerchantAccountId(),
+                readConfiguration.getMerchantAccountId());
+        assertTrue(readConfiguration.isCvvChallengePresent());
+        assertTrue(readConfiguration.isPostalCodeChallengePresent());
+    }
+
+    @Test
+    public void read_returnsMaxAgeAndETag() throws IOException, JSONException {
+        new ConfigurationSnapshot(Configuration.fromJson(stringFromFixture("configuration.json")),
+                1000, 60000, "W/\"etag\"").write(mFile, CONFIG_URL);
+
+        ConfigurationSnapshot snapshot = ConfigurationSnapshot.read(mFile, CONFIG_URL);
+
+        assertEquals(60000, snapshot.getMaxAge());
+        assertEquals("W/\"etag\"", snapshot.getETag());
+    }
+
+    @Test
+    public void read_returnsNullETagWhenThereIsNone() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration.json")));
+
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL).getETag());
+    }
+
+    @Test
+    public void read_decodesSections() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration_with_analytics.json")));
+        assertEquals("analytics_url", ConfigurationSnapshot.read(mFile, CONFIG_URL)
+                .getConfiguration().getAnalytics().getUrl());
+
+        write(Configuration.fromJson(stringFromFixture("configuration_with_android_pay.json")));
+        assertEquals("google-auth-fingerprint", ConfigurationSnapshot.read(mFile, CONFIG_URL)
+                .getConfiguration().getAndroidPay().getGoogleAuthorizationFingerprint());
+
+        write(Configuration.fromJson(stringFromFixture("configuration_with_pay_with_venmo.json")));
+        assertEquals("access-token", ConfigurationSnapshot.read(mFile, CONFIG_URL)
+                .getConfiguration().getPayWithVenmo().getAccessToken());
+    }
+
+    @Test
+    public void read_decodesSectionsWithEscapedKeys() throws IOException, JSONException {
+        String configurationString = stringFromFixture("configuration_with_android_pay.json")
+                .replace("\"androidPay\"", "\"\\u0061ndroidPay\"");
+        write(Configuration.fromJson(configurationString));
+
+        Configuration configuration = ConfigurationSnapshot.read(mFile, CONFIG_URL)
+                .getConfiguration();
+
+        assertEquals(configurationString, configuration.toJson());
+        assertEquals("google-auth-fingerprint",
+                configuration.getAndroidPay().getGoogleAuthorizationFingerprint());
+    }
+
+    @Test
+    public void write_storesSectionsOnlyOnce() throws IOException, JSONException {
+        String configurationString = stringFromFixture("configuration_with_android_pay.json");
+        write(Configuration.fromJson(configurationString));
+
+        assertTrue(mFile.length() < configurationString.getBytes("UTF-8").length + 256);
+    }
+
+    @Test
+    public void write_rewritesSnapshotReadFromDisk() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration_with_pay_with_venmo.json")));
+        write(ConfigurationSnapshot.read(mFile, CONFIG_URL).getConfiguration());
+
+        Configuration configuration = ConfigurationSnapshot.read(mFile, CONFIG_URL)
+                .getConfiguration();
+
+        assertEquals(stringFromFixture("configuration_with_pay_with_venmo.json"),
+                configuration.toJson());
+        assertEquals("access-token", configuration.getPayWithVenmo().getAccessToken());
+    }
+
+    @Test
+    public void read_handlesMissingSections() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration_without_analytics.json")));
+
+        Configuration configuration = ConfigurationSnapshot.read(mFile, CONFIG_URL)
+                .getConfiguration();
+
+        assertFalse(configuration.isPayPalEnabled());
+        assertNotNull(configuration.getPayPal());
+        assertFalse(configuration.getAnalytics().isEnabled());
+    }
+
+    @Test
+    public void read_returnsNullForEmptyFile() {
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL));
+    }
+
+    @Test
+    public void read_returnsNullForMissingFile() {
+        mFile.delete();
+
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL));
+    }
+
+    @Test
+    public void read_returnsNullForDifferentConfigUrl() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration.json")));
+
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL + "?configVersion=3"));
+    }
+
+    @Test
+    public void read_returnsNullForDifferentVersion() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration.json")));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(4);
+        file.writeInt(ConfigurationSnapshot.VERSION + 1);
+        file.close();
+
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL));
+    }
+
+    @Test
+    public void read_returnsNullForCorruptFile() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration.json")));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length() - 1);
+        int lastByte = file.read();
+        file.seek(file.length() - 1);
+        file.write(lastByte ^ 0xFF);
+        file.close();
+
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL));
+    }
+
+    @Test
+    public void read_returnsNullForTruncatedFile() throws IOException, JSONException {
+        write(Configuration.fromJson(stringFromFixture("configuration.json")));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        assertNull(ConfigurationSnapshot.read(mFile, CONFIG_URL));
+    }
+
+    private void write(Configuration configuration) throws IOException {
+        new ConfigurationSnapshot(configuration, 1000, 300000, null).write(mFile, CONFIG_URL);
+    }
+}
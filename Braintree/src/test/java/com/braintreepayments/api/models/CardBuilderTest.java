@@ -1,5 +1,7 @@
 package com.braintreepayments.api.models;
 
+import com.braintreepayments.api.exceptions.InvalidArgumentException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Test;
@@ -7,8 +9,11 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 
 import static com.braintreepayments.testutils.CardNumber.VISA;
+import static com.braintreepayments.testutils.FixturesHelper.stringFromFixture;
+import static com.braintreepayments.testutils.TestTokenizationKey.TOKENIZATION_KEY;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 @RunWith(RobolectricGradleTestRunner.class)
 public class CardBuilderTest {
@@ -140,4 +145,25 @@ public class CardBuilderTest {
 
         assertFalse(builtCard.keys().hasNext());
     }
+
+    @Test
+    public void build_writesAuthorizationFingerprintFirstWhenUsingAClientToken()
+            throws JSONException, InvalidArgumentException {
+        CardBuilder cardBuilder = new CardBuilder().cardNumber(VISA);
+
+        String body = cardBuilder.build(Authorization.fromString(stringFromFixture("client_token.json")));
+
+        assertTrue(body.startsWith("{\"authorizationFingerprint\":\"authorization_fingerprint\","));
+        JSONObject json = new JSONObject(body);
+        assertEquals("authorization_fingerprint", json.getString("authorizationFingerprint"));
+        assertEquals(VISA, json.getJSONObject(CREDIT_CARD_KEY).getString("number"));
+    }
+
+    @Test
+    public void build_doesNotAddAuthorizationFingerprintWhenUsingATokenizationKey()
+            throws InvalidArgumentException {
+        CardBuilder cardBuilder = new CardBuilder().cardNumber(VISA);
+
+        assertEquals(cardBuilder.build(), cardBuilder.build(Authorization.fromString(TOKENIZATION_KEY)));
+    }
 }
@@ -12,6 +12,7 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -145,4 +146,58 @@ public class ConfigurationTest {
         assertNull(configuration.getAndroidPay().getDisplayName());
         assertNull(configuration.getAndroidPay().getEnvironment());
     }
+
+    @Test
+    public void fromJson_ignoresUnknownChallenges() throws JSONException {
+        Configuration configuration = Configuration.fromJson("{\"clientApiUrl\": \"client_api_url\"," +
+                "\"environment\": \"test\", \"merchantId\": \"merchant_id\"," +
+                "\"challenges\": [\"unknown\", \"postal_code\"]}");
+
+        assertFalse(configuration.isCvvChallengePresent());
+        assertTrue(configuration.isPostalCodeChallengePresent());
+    }
+
+    @Test
+    public void returnsTheSameSubConfigurationsOnEachCall() throws JSONException {
+        Configuration configuration = Configuration.fromJson(
+                stringFromFixture("configuration_with_android_pay.json"));
+
+        assertSame(configuration.getPayPal(), configuration.getPayPal());
+        assertSame(configuration.getAndroidPay(), configuration.getAndroidPay());
+        assertSame(configuration.getAnalytics(), configuration.getAnalytics());
+        assertSame(configuration.getPayWithVenmo(), configuration.getPayWithVenmo());
+    }
+
+    @Test
+    public void fromJson_doesNotParseSubConfigurationsUntilTheyAreRequested()
+            throws JSONException {
+        Configuration configuration = Configuration.fromJson(
+                stringFromFixture("configuration_with_android_pay.json"));
+
+        assertNull(configuration.mPayPalConfiguration);
+        assertNull(configuration.mAndroidPayConfiguration);
+        assertNull(configuration.mVenmoConfiguration);
+        assertNull(configuration.mAnalyticsConfiguration);
+
+        configuration.getAndroidPay();
+
+        assertNotNull(configuration.mAndroidPayConfiguration);
+        assertNull(configuration.mPayPalConfiguration);
+        assertNull(configuration.mVenmoConfiguration);
+        assertNull(configuration.mAnalyticsConfiguration);
+    }
+
+    @Test
+    public void isChallengePresent_doesNotParseSubConfigurations() throws JSONException {
+        Configuration configuration = Configuration.fromJson(
+                stringFromFixture("configuration_with_multiple_challenges.json"));
+
+        assertTrue(configuration.isCvvChallengePresent());
+        assertTrue(configuration.isPostalCodeChallengePresent());
+        assertFalse(configuration.isThreeDSecureEnabled());
+        assertNull(configuration.mPayPalConfiguration);
+        assertNull(configuration.mAndroidPayConfiguration);
+        assertNull(configuration.mVenmoConfiguration);
+        assertNull(configuration.mAnalyticsConfiguration);
+    }
 }
@@ -0,0 +1,159 @@
+package com.braintreepayments.api.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.braintreepayments.api.interfaces.CircuitBreakerListener;
+import com.braintreepayments.api.internal.CircuitBreaker.State;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CircuitBreakerTest {
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.resetDefault();
+    }
+
+    @Test(timeout = 1000)
+    public void getDefault_returnsTheSameInstance() {
+        assertSame(CircuitBreaker.getDefault(), CircuitBreaker.getDefault());
+    }
+
+    @Test(timeout = 1000)
+    public void opensAfterFailureThresholdIsReached() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker().setFailureThreshold(2);
+
+        circuitBreaker.onFailure("example.com");
+        assertEquals(State.CLOSED, circuitBreaker.getState("example.com"));
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+
+        circuitBreaker.onFailure("example.com");
+        assertEquals(State.OPEN, circuitBreaker.getState("example.com"));
+        assertFalse(circuitBreaker.allowRequest("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void successResetsFailureCount() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker().setFailureThreshold(2);
+
+        circuitBreaker.onFailure("example.com");
+        circuitBreaker.onSuccess("example.com");
+        circuitBreaker.onFailure("example.com");
+
+        assertEquals(State.CLOSED, circuitBreaker.getState("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void tracksHostsSeparately() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker().setFailureThreshold(1);
+
+        circuitBreaker.onFailure("example.com");
+
+        assertEquals(State.OPEN, circuitBreaker.getState("example.com"));
+        assertEquals(State.CLOSED, circuitBreaker.getState("paypal.com"));
+        assertTrue(circuitBreaker.allowRequest("paypal.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void allowsASingleProbeAfterOpenDuration() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker()
+                .setFailureThreshold(1)
+                .setOpenDuration(0);
+
+        circuitBreaker.onFailure("example.com");
+
+        assertTrue(circuitBreaker.allowRequest("example.com"));
+        assertEquals(State.HALF_OPEN, circuitBreaker.getState("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotAllowRequestsWhileProbeIsInFlight() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker()
+                .setFailureThreshold(1)
+                .setOpenDuration(0);
+        circuitBreaker.onFailure("example.com");
+        circuitBreaker.allowRequest("example.com");
+
+        circuitBreaker.setOpenDuration(10000);
+
+        assertFalse(circuitBreaker.allowRequest("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void closesWhenProbeSucceedsAndReopensWhenProbeFails() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker()
+                .setFailureThreshold(1)
+                .setOpenDuration(0);
+        circuitBreaker.onFailure("example.com");
+
+        circuitBreaker.allowRequest("example.com");
+        circuitBreaker.onFailure("example.com");
+        assertEquals(State.OPEN, circuitBreaker.getState("example.com"));
+
+        circuitBreaker.allowRequest("example.com");
+        circuitBreaker.onSuccess("example.com");
+        assertEquals(State.CLOSED, circuitBreaker.getState("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void notifiesListenerOfStateTransitions() {
+        CircuitBreakerListener listener = mock(CircuitBreakerListener.class);
+        CircuitBreaker circuitBreaker = new CircuitBreaker()
+                .setFailureThreshold(1)
+                .setOpenDuration(0)
+                .setListener(listener);
+
+        circuitBreaker.onFailure("example.com");
+        circuitBreaker.allowRequest("example.com");
+        circuitBreaker.onSuccess("example.com");
+
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onCircuitStateChanged("example.com", State.CLOSED, State.OPEN);
+        inOrder.verify(listener).onCircuitStateChanged("example.com", State.OPEN, State.HALF_OPEN);
+        inOrder.verify(listener).onCircuitStateChanged("example.com", State.HALF_OPEN,
+                State.CLOSED);
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotNotifyListenerWithoutTransitions() {
+        CircuitBreakerListener listener = mock(CircuitBreakerListener.class);
+        CircuitBreaker circuitBreaker = new CircuitBreaker()
+                .setFailureThreshold(2)
+                .setListener(listener);
+
+        circuitBreaker.onFailure("example.com");
+        circuitBreaker.onSuccess("example.com");
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test(timeout = 1000)
+    public void isFailure_countsTimeoutsAndNetworkErrors() {
+        assertTrue(CircuitBreaker.isFailure(new SocketTimeoutException()));
+        assertTrue(CircuitBreaker.isFailure(new ConnectException()));
+        assertTrue(CircuitBreaker.isFailure(new UnknownHostException()));
+        assertFalse(CircuitBreaker.isFailure(new SSLHandshakeException("")));
+        assertFalse(CircuitBreaker.isFailure(new IOException()));
+    }
+}
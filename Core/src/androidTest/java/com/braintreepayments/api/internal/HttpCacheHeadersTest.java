@@ -0,0 +1,60 @@
+package com.braintreepayments.api.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class HttpCacheHeadersTest {
+
+    @Test(timeout = 1000)
+    public void parseMaxAge_returnsNoMaxAgeWhenNotSpecified() {
+        assertEquals(HttpCacheHeaders.NO_MAX_AGE, HttpCacheHeaders.parseMaxAge(null));
+        assertEquals(HttpCacheHeaders.NO_MAX_AGE, HttpCacheHeaders.parseMaxAge("public"));
+        assertEquals(HttpCacheHeaders.NO_MAX_AGE, HttpCacheHeaders.parseMaxAge("max-age=abc"));
+    }
+
+    @Test(timeout = 1000)
+    public void parseMaxAge_parsesMaxAgeInMilliseconds() {
+        assertEquals(60000, HttpCacheHeaders.parseMaxAge("max-age=60"));
+        assertEquals(60000, HttpCacheHeaders.parseMaxAge("private, Max-Age=\"60\", must-revalidate"));
+        assertEquals(0, HttpCacheHeaders.parseMaxAge("max-age=-1"));
+    }
+
+    @Test(timeout = 1000)
+    public void parseMaxAge_returnsZeroForNoCacheAndNoStore() {
+        assertEquals(0, HttpCacheHeaders.parseMaxAge("no-cache"));
+        assertEquals(0, HttpCacheHeaders.parseMaxAge("max-age=60, no-store"));
+    }
+
+    @Test(timeout = 1000)
+    public void fromConnection_readsETagAndCacheControl() {
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        when(connection.getHeaderField("ETag")).thenReturn("W/\"etag\"");
+        when(connection.getHeaderField("Cache-Control")).thenReturn("max-age=300");
+
+        HttpCacheHeaders cacheHeaders = HttpCacheHeaders.fromConnection(connection);
+
+        assertEquals("W/\"etag\"", cacheHeaders.getETag());
+        assertEquals(300000, cacheHeaders.getMaxAgeMillis());
+    }
+
+    @Test(timeout = 1000)
+    public void fromConnection_handlesMissingHeaders() {
+        HttpCacheHeaders cacheHeaders =
+                HttpCacheHeaders.fromConnection(mock(HttpURLConnection.class));
+
+        assertNull(cacheHeaders.getETag());
+        assertEquals(HttpCacheHeaders.NO_MAX_AGE, cacheHeaders.getMaxAgeMillis());
+    }
+}
@@ -1,5 +1,6 @@
 package com.braintreepayments.api.internal;
 
+import android.os.Handler;
 import android.os.Looper;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -7,26 +8,47 @@ import android.test.suitebuilder.annotation.SmallTest;
 import com.braintreepayments.api.core.BuildConfig;
 import com.braintreepayments.api.exceptions.AuthenticationException;
 import com.braintreepayments.api.exceptions.AuthorizationException;
+import com.braintreepayments.api.exceptions.CircuitOpenException;
+import com.braintreepayments.api.exceptions.DeadlineExceededException;
 import com.braintreepayments.api.exceptions.DownForMaintenanceException;
 import com.braintreepayments.api.exceptions.ServerException;
 import com.braintreepayments.api.exceptions.UnexpectedException;
 import com.braintreepayments.api.exceptions.UnprocessableEntityException;
 import com.braintreepayments.api.exceptions.UpgradeRequiredException;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.interfaces.RequestAttemptListener;
+import com.braintreepayments.api.interfaces.RequestTimingListener;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLException;
@@ -36,12 +58,23 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
+import static org.mockito.AdditionalMatchers.and;
+import static org.mockito.AdditionalMatchers.gt;
+import static org.mockito.AdditionalMatchers.leq;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(AndroidJUnit4.class)
@@ -78,6 +111,41 @@ public class HttpClientTest {
         assertTrue(sslSocketFactory.get(httpClient) instanceof TLSSocketFactory);
     }
 
+    @Test(timeout = 1000)
+    public void usesDefaultThreadPoolWhenNoThreadPoolIsSet() {
+        HttpClient httpClient = new HttpClient();
+
+        assertEquals(HttpThreadPool.getDefault(), httpClient.mThreadPool);
+    }
+
+    @Test(timeout = 1000)
+    public void sharesDefaultThreadPoolBetweenClients() {
+        assertEquals(new HttpClient().mThreadPool, new HttpClient().mThreadPool);
+    }
+
+    @Test(timeout = 1000)
+    public void usesThreadPool() {
+        ExecutorService threadPool = mock(ExecutorService.class);
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool);
+
+        httpClient.get("/", null);
+
+        verify(threadPool).submit(any(Runnable.class));
+    }
+
+    @Test(timeout = 1000)
+    public void postsRejectedExecutionExceptionWhenThreadPoolRejectsRequest()
+            throws IOException, InterruptedException {
+        ExecutorService threadPool = mock(ExecutorService.class);
+        when(threadPool.submit(any(Runnable.class)))
+                .thenThrow(new RejectedExecutionException("Request rejected"));
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool);
+
+        assertExceptionIsPosted(httpClient, RejectedExecutionException.class, "Request rejected");
+    }
+
     @Test(timeout = 1000)
     public void postsErrorForHttpsRequestsWhenSSLSocketFactoryIsNull()
             throws IOException, InterruptedException {
@@ -166,6 +234,243 @@ public class HttpClientTest {
         assertEquals(1000, connection.getReadTimeout());
     }
 
+    @Test(timeout = 1000)
+    public void compressesRequestBodiesForEnabledPaths() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpURLConnection connection = connectionWithOutputStream(outputStream);
+        HttpClient httpClient = spy(new HttpClient()
+                .setBaseUrl("http://example.com")
+                .enableRequestCompression("/analytics", 2));
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("/analytics", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(connection).setRequestProperty("Content-Encoding", "gzip");
+        GZIPInputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals('{', in.read());
+        assertEquals('}', in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotCompressRequestBodiesSmallerThanMinimumSize() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpURLConnection connection = connectionWithOutputStream(outputStream);
+        HttpClient httpClient = spy(new HttpClient()
+                .setBaseUrl("http://example.com")
+                .enableRequestCompression("/analytics", 3));
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("/analytics", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(connection, never()).setRequestProperty("Content-Encoding", "gzip");
+        assertEquals("{}", outputStream.toString("UTF-8"));
+    }
+
+    @Test(timeout = 1000)
+    public void post_sendsByteArrayBodiesWithFixedLengthStreaming() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpURLConnection connection = connectionWithOutputStream(outputStream);
+        HttpClient httpClient = spy(new HttpClient());
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{\"a\":1}".getBytes("UTF-8"),
+                new HttpResponseCallback() {
+                    @Override
+                    public void success(String responseBody) {
+                        countDownLatch.countDown();
+                    }
+
+                    @Override
+                    public void failure(Exception exception) {
+                        fail("Request failed");
+                    }
+                });
+
+        countDownLatch.await();
+        verify(connection).setFixedLengthStreamingMode(7);
+        assertEquals("{\"a\":1}", outputStream.toString("UTF-8"));
+    }
+
+    @Test(timeout = 1000)
+    public void post_encodesStringBodiesAsUtf8() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpURLConnection connection = connectionWithOutputStream(outputStream);
+        HttpClient httpClient = spy(new HttpClient());
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{\"name\":\"Zo\u00eb\"}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(connection).setFixedLengthStreamingMode(15);
+        assertEquals("{\"name\":\"Zo\u00eb\"}", outputStream.toString("UTF-8"));
+    }
+
+    @Test(timeout = 1000)
+    public void post_usesChunkedStreamingForCompressedBodies() throws Exception {
+        HttpURLConnection connection = connectionWithOutputStream(new ByteArrayOutputStream());
+        HttpClient httpClient = spy(new HttpClient()
+                .setBaseUrl("http://example.com")
+                .enableRequestCompression("/analytics", 2));
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("/analytics", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(connection).setChunkedStreamingMode(0);
+        verify(connection, never()).setFixedLengthStreamingMode(anyInt());
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotCompressRequestBodiesForOtherPaths() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        HttpURLConnection connection = connectionWithOutputStream(outputStream);
+        HttpClient httpClient = spy(new HttpClient()
+                .setBaseUrl("http://example.com")
+                .enableRequestCompression("/analytics", 0));
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("/payment_methods", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(connection, never()).setRequestProperty("Content-Encoding", "gzip");
+        assertEquals("{}", outputStream.toString("UTF-8"));
+    }
+
+    @Test(timeout = 1000)
+    public void disconnectsAfterRequestsByDefault() throws Exception {
+        HttpURLConnection connection = connectionWithOutputStream(new ByteArrayOutputStream());
+        HttpClient httpClient = spy(new HttpClient());
+        doReturn(connection).when(httpClient).init(anyString());
+
+        assertRequestsSucceed(httpClient);
+
+        verify(connection, times(2)).disconnect();
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotDisconnectAfterRequestsWhenReusingConnections() throws Exception {
+        HttpURLConnection connection = connectionWithOutputStream(new ByteArrayOutputStream());
+        HttpClient httpClient = spy(new HttpClient()
+                .setReuseConnections(true));
+        doReturn(connection).when(httpClient).init(anyString());
+
+        assertRequestsSucceed(httpClient);
+
+        verify(connection, never()).disconnect();
+    }
+
+    @Test(timeout = 1000)
+    public void closesResponseStreamWhenReusingConnections() throws Exception {
+        InputStream inputStream = spy(streamFromString("response"));
+        HttpURLConnection connection = connectionWithOutputStream(new ByteArrayOutputStream());
+        when(connection.getInputStream()).thenReturn(inputStream);
+        HttpClient httpClient = spy(new HttpClient()
+                .setReuseConnections(true));
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(inputStream).close();
+    }
+
+    @Test(timeout = 1000)
+    public void getConnectionReuseRate_returnsFractionOfRequestsWithoutNewSockets()
+            throws IOException {
+        TLSSocketFactory socketFactory = spy(new TLSSocketFactory());
+        HttpClient httpClient = new HttpClient()
+                .setSSLSocketFactory(socketFactory);
+
+        httpClient.init("https://example.com/");
+        httpClient.init("https://example.com/");
+        httpClient.init("https://example.com/");
+        httpClient.init("https://example.com/");
+        doReturn(1L).when(socketFactory).getCreatedSocketCount();
+
+        assertEquals(0.75f, httpClient.getConnectionReuseRate());
+    }
+
+    @Test(timeout = 1000)
+    public void getConnectionReuseRate_returnsZeroForOtherSSLSocketFactories() throws IOException {
+        HttpClient httpClient = new HttpClient()
+                .setSSLSocketFactory(mock(SSLSocketFactory.class));
+
+        httpClient.init("https://example.com/");
+
+        assertEquals(0f, httpClient.getConnectionReuseRate());
+    }
+
     @Test(timeout = 1000)
     public void postsErrorWhenBaseUrlIsNotSet() throws InterruptedException, IOException {
         HttpClient httpClient = new HttpClient();
@@ -260,33 +565,84 @@ public class HttpClientTest {
     }
 
     @Test(timeout = 1000)
-    public void failureCallbacksHappenOnMainThread() throws Exception {
-        HttpClient httpClient = spy(new HttpClient());
-        doThrow(new IOException()).when(httpClient).parseResponse(any(HttpsURLConnection.class));
+    public void streamingCallbacksDecodeOffMainThreadAndRespondOnMainThread()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(200, "response");
         final CountDownLatch countDownLatch = new CountDownLatch(2);
+        StreamingHttpResponseCallback<String> callback = new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                assertFalse(Looper.getMainLooper() == Looper.myLooper());
+                return readString(responseBody);
+            }
 
-        httpClient.get("/", new HttpResponseCallback() {
             @Override
-            public void success(String responseBody) {
+            public void onResponse(String response) {
+                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                assertEquals("response", response);
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        };
+
+        httpClient.get("/", callback);
+        httpClient.post("/", "{}", callback);
+
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void streamingCallbacksReceiveDecodingErrors() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(200, "response");
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("/", new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                throw new IOException("Decoding failed");
+            }
+
+            @Override
+            public void onResponse(String response) {
                 fail("Request was successful");
             }
 
             @Override
             public void failure(Exception exception) {
-                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                assertEquals("Decoding failed", exception.getMessage());
                 countDownLatch.countDown();
             }
         });
 
-        httpClient.post("/", "{}", new HttpResponseCallback() {
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void streamingCallbacksReceiveErrorsForUnsuccessfulResponses()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(422, "There was an error");
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("/", new StreamingHttpResponseCallback<String>() {
             @Override
-            public void success(String responseBody) {
+            public String decode(Reader responseBody) throws Exception {
+                fail("Unsuccessful response was decoded");
+                return null;
+            }
+
+            @Override
+            public void onResponse(String response) {
                 fail("Request was successful");
             }
 
             @Override
             public void failure(Exception exception) {
-                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                assertEquals(UnprocessableEntityException.class, exception.getClass());
+                assertEquals("There was an error", exception.getMessage());
                 countDownLatch.countDown();
             }
         });
@@ -295,65 +651,1178 @@ public class HttpClientTest {
     }
 
     @Test(timeout = 1000)
-    public void postsIOExceptionWhenHttpRequestBlowsUp() throws Exception {
+    public void streamingCallbacksReceiveCacheHeaders() throws IOException, InterruptedException {
+        HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getHeaderField("ETag")).thenReturn("\"etag\"");
+        when(connection.getHeaderField("Cache-Control")).thenReturn("public, max-age=60");
         HttpClient httpClient = spy(new HttpClient());
-        HttpURLConnection httpURLConnection = mock(HttpURLConnection.class);
-        when(httpURLConnection.getOutputStream()).thenReturn(mock(OutputStream.class));
-        doReturn(httpURLConnection).when(httpClient).init(anyString());
-        doThrow(new IOException()).when(httpClient).parseResponse(any(HttpURLConnection.class));
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
 
-        assertExceptionIsPosted(httpClient, IOException.class, null);
-    }
+        httpClient.get("/", new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                fail("Response was decoded without cache headers");
+                return null;
+            }
 
-    @Test(timeout = 1000)
-    public void postsServerErrorWhenServerReturns500() throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(500, "");
+            @Override
+            public String decode(Reader responseBody, HttpCacheHeaders cacheHeaders) {
+                assertEquals("\"etag\"", cacheHeaders.getETag());
+                assertEquals(60000, cacheHeaders.getMaxAgeMillis());
+                return "decoded";
+            }
 
-        assertExceptionIsPosted(httpClient, ServerException.class, null);
-    }
+            @Override
+            public void onResponse(String response) {
+                assertEquals("decoded", response);
+                countDownLatch.countDown();
+            }
 
-    @Test(timeout = 1000)
-    public void postsDownForMaintenanceWhenServerIsDown() throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(503, "");
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
 
-        assertExceptionIsPosted(httpClient, DownForMaintenanceException.class, null);
+        countDownLatch.await();
     }
 
     @Test(timeout = 1000)
-    public void throwsUpgradeRequiredExceptionOn426()
+    public void streamingCallbacksWithETagSendIfNoneMatchAndReceiveNotModified()
             throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(426, "");
-
-        assertExceptionIsPosted(httpClient, UpgradeRequiredException.class, null);
-    }
+        HttpURLConnection connection = connectionWithResponse(304);
+        when(connection.getHeaderField("Cache-Control")).thenReturn("max-age=120");
+        HttpClient httpClient = spy(new HttpClient());
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
 
-    @Test(timeout = 1000)
-    public void postsAuthenticationExceptionOn401() throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(401, "");
+        httpClient.get("/", new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String getETag() {
+                return "\"etag\"";
+            }
 
-        assertExceptionIsPosted(httpClient, AuthenticationException.class, null);
-    }
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                fail("Not modified response was decoded");
+                return null;
+            }
 
-    @Test(timeout = 1000)
-    public void postsAuthorizationExceptionOn403() throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(403, "There was an error");
+            @Override
+            public String decodeNotModified(HttpCacheHeaders cacheHeaders) {
+                assertEquals(120000, cacheHeaders.getMaxAgeMillis());
+                return "cached";
+            }
 
-        assertExceptionIsPosted(httpClient, AuthorizationException.class, "There was an error");
-    }
+            @Override
+            public void onResponse(String response) {
+                assertEquals("cached", response);
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(connection).setRequestProperty("If-None-Match", "\"etag\"");
+    }
+
+    @Test(timeout = 1000)
+    public void streamingCallbacksWithoutETagReceiveErrorsForNotModified()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(304, "");
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("/", new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                fail("Not modified response was decoded");
+                return null;
+            }
+
+            @Override
+            public void onResponse(String response) {
+                fail("Request was successful");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                assertEquals(UnexpectedException.class, exception.getClass());
+                countDownLatch.countDown();
+            }
+        });
+
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void failureCallbacksHappenOnMainThread() throws Exception {
+        HttpClient httpClient = spy(new HttpClient());
+        doThrow(new IOException()).when(httpClient).parseResponse(any(HttpsURLConnection.class));
+        final CountDownLatch countDownLatch = new CountDownLatch(2);
+
+        httpClient.get("/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Request was successful");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                countDownLatch.countDown();
+            }
+        });
+
+        httpClient.post("/", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Request was successful");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                countDownLatch.countDown();
+            }
+        });
+
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void postsIOExceptionWhenHttpRequestBlowsUp() throws Exception {
+        HttpClient httpClient = spy(new HttpClient());
+        HttpURLConnection httpURLConnection = mock(HttpURLConnection.class);
+        when(httpURLConnection.getOutputStream()).thenReturn(mock(OutputStream.class));
+        doReturn(httpURLConnection).when(httpClient).init(anyString());
+        doThrow(new IOException()).when(httpClient).parseResponse(any(HttpURLConnection.class));
+
+        assertExceptionIsPosted(httpClient, IOException.class, null);
+    }
+
+    @Test(timeout = 1000)
+    public void postsServerErrorWhenServerReturns500() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(500, "");
+
+        assertExceptionIsPosted(httpClient, ServerException.class, null);
+    }
+
+    @Test(timeout = 1000)
+    public void postsDownForMaintenanceWhenServerIsDown() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(503, "");
+
+        assertExceptionIsPosted(httpClient, DownForMaintenanceException.class, null);
+    }
+
+    @Test(timeout = 1000)
+    public void throwsUpgradeRequiredExceptionOn426()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(426, "");
+
+        assertExceptionIsPosted(httpClient, UpgradeRequiredException.class, null);
+    }
+
+    @Test(timeout = 1000)
+    public void postsAuthenticationExceptionOn401() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(401, "");
+
+        assertExceptionIsPosted(httpClient, AuthenticationException.class, null);
+    }
+
+    @Test(timeout = 1000)
+    public void postsAuthorizationExceptionOn403() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(403, "There was an error");
+
+        assertExceptionIsPosted(httpClient, AuthorizationException.class, "There was an error");
+    }
+
+    @Test(timeout = 1000)
+    public void postsUnprocessableEntityExceptionOn422() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(422, "There was an error");
+
+        assertExceptionIsPosted(httpClient, UnprocessableEntityException.class, "There was an error");
+    }
+
+    @Test(timeout = 1000)
+    public void postsUnknownExceptionOnUnrecognizedStatusCode()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(418, "");
+
+        assertExceptionIsPosted(httpClient, UnexpectedException.class, null);
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotRetryRequestsByDefault() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(503, "");
+
+        assertExceptionIsPosted(httpClient, DownForMaintenanceException.class, null);
+
+        verify(httpClient, times(2)).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void retriesGetRequestsWithRetryPolicy() throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(0, 0)));
+        doReturn(connectionWithResponse(503)).doReturn(connectionWithResponse(200))
+                .when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(httpClient, times(2)).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void retriesRequestsThatFailWithoutAResponse() throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(0, 0)));
+        doThrow(new IOException()).doReturn(connectionWithResponse(200))
+                .when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(httpClient, times(2)).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void postsErrorAfterMaxAttempts() throws IOException, InterruptedException {
+        HttpClient httpClient = clientWithExpectedResponse(503, "");
+        httpClient.setRetryPolicy(new RetryPolicy()
+                .setMaxAttempts(2)
+                .setBackoff(0, 0));
+        httpClient.setRetryPolicy("/", new RetryPolicy()
+                .setMaxAttempts(2)
+                .setBackoff(0, 0));
+
+        assertExceptionIsPosted(httpClient, DownForMaintenanceException.class, null);
+
+        verify(httpClient, times(4)).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotRetryPostRequestsWithoutPathRetryPolicy()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(0, 0)));
+        doReturn(connectionWithResponse(503)).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Request was successful");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                assertEquals(DownForMaintenanceException.class, exception.getClass());
+                countDownLatch.countDown();
+            }
+        });
+
+        countDownLatch.await();
+        verify(httpClient).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotRetrySentPostRequestsWhenPolicyDoesNotRetrySentRequests()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy("http://example.com/", new RetryPolicy()
+                        .setBackoff(0, 0)
+                        .setRetrySentRequests(false)));
+        HttpURLConnection connection = connectionWithResponse(500);
+        doReturn(connection).when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Request was successful");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                assertEquals(ServerException.class, exception.getClass());
+                countDownLatch.countDown();
+            }
+        });
+
+        countDownLatch.await();
+        verify(httpClient).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void retriesPostRequestsThatFailedToConnectWhenPolicyDoesNotRetrySentRequests()
+            throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy("http://example.com/", new RetryPolicy()
+                        .setBackoff(0, 0)
+                        .setRetrySentRequests(false)));
+        HttpURLConnection failedConnection = connectionWithResponse(200);
+        doThrow(new ConnectException()).when(failedConnection).connect();
+        doReturn(failedConnection).doReturn(connectionWithResponse(200))
+                .when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        verify(httpClient, times(2)).init(anyString());
+        verify(failedConnection, never()).getOutputStream();
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_cancelsScheduledRetry() throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(200, 200).setJitter(0)));
+        doReturn(connectionWithResponse(503)).doReturn(connectionWithResponse(200))
+                .when(httpClient).init(anyString());
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Cancelled request was retried");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Cancelled request called failure");
+            }
+        });
+        verify(httpClient, timeout(500)).init(anyString());
+        Thread.sleep(50);
+        httpClient.cancelAll();
+        Thread.sleep(300);
+
+        verify(httpClient).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void sendsSameIdempotencyKeyWithEachAttempt() throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy("http://example.com/", new RetryPolicy()
+                        .setBackoff(0, 0)
+                        .setIdempotencyKeyHeader("Idempotency-Key")));
+        HttpURLConnection failedConnection = connectionWithResponse(503);
+        HttpURLConnection successfulConnection = connectionWithResponse(200);
+        doReturn(failedConnection).doReturn(successfulConnection)
+                .when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+        ArgumentCaptor<String> firstKey = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> secondKey = ArgumentCaptor.forClass(String.class);
+        verify(failedConnection).setRequestProperty(eq("Idempotency-Key"), firstKey.capture());
+        verify(successfulConnection).setRequestProperty(eq("Idempotency-Key"), secondKey.capture());
+        assertEquals(firstKey.getValue(), secondKey.getValue());
+    }
+
+    @Test(timeout = 1000)
+    public void notifiesRequestAttemptListenerOfEachAttempt()
+            throws IOException, InterruptedException {
+        final List<String> attempts = new ArrayList<>();
+        HttpClient httpClient = spy(new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(0, 0))
+                .setRequestAttemptListener(new RequestAttemptListener() {
+                    @Override
+                    public void onRequestAttempt(String url, int attempt, int responseCode,
+                            Exception exception, long durationMillis, long retryDelayMillis) {
+                        attempts.add(attempt + ":" + responseCode + ":" + retryDelayMillis);
+                    }
+                }));
+        doReturn(connectionWithResponse(503)).doReturn(connectionWithResponse(200))
+                .when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {}
+        });
+
+        countDownLatch.await();
+        assertEquals(2, attempts.size());
+        assertEquals("1:503:0", attempts.get(0));
+        assertEquals("2:200:-1", attempts.get(1));
+    }
+
+    @Test(timeout = 1000)
+    public void coalescesIdenticalGetRequestsInFlight() throws IOException, InterruptedException {
+        final CountDownLatch responseLatch = new CountDownLatch(1);
+        HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getResponseCode()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                responseLatch.await();
+                return 200;
+            }
+        });
+        HttpClient firstClient = spy(new HttpClient().setCoalesceRequests(true));
+        doReturn(connection).when(firstClient).init(anyString());
+        HttpClient secondClient = spy(new HttpClient().setCoalesceRequests(true));
+        long coalescedRequestCount = HttpClient.getCoalescedRequestCount();
+        final CountDownLatch countDownLatch = new CountDownLatch(2);
+        HttpResponseCallback callback = new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        };
+
+        firstClient.get("http://example.com/coalesced", callback);
+        secondClient.get("http://example.com/coalesced", callback);
+        responseLatch.countDown();
+
+        countDownLatch.await();
+        verify(firstClient).init(anyString());
+        verify(secondClient, never()).init(anyString());
+        assertEquals(coalescedRequestCount + 1, HttpClient.getCoalescedRequestCount());
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotCoalesceRequestsByDefault() throws IOException, InterruptedException {
+        HttpClient httpClient = spy(new HttpClient());
+        doReturn(connectionWithResponse(200)).doReturn(connectionWithResponse(200))
+                .when(httpClient).init(anyString());
+        final CountDownLatch countDownLatch = new CountDownLatch(2);
+        HttpResponseCallback callback = new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        };
+
+        httpClient.get("http://example.com/", callback);
+        httpClient.get("http://example.com/", callback);
+
+        countDownLatch.await();
+        verify(httpClient, times(2)).init(anyString());
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_removesQueuedRequestsFromThreadPool() {
+        Future future = mock(Future.class);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool);
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {}
+
+            @Override
+            public void failure(Exception exception) {}
+        });
+        httpClient.cancelAll();
+
+        verify(future).cancel(false);
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_callsOnCancelOfStreamingCallback() {
+        Future future = mock(Future.class);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool);
+        final CountDownLatch cancelLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                return readString(responseBody);
+            }
+
+            @Override
+            public void onResponse(String response) {
+                fail("Cancelled request called onResponse");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Cancelled request called failure");
+            }
+
+            @Override
+            public void onCancel() {
+                cancelLatch.countDown();
+            }
+        });
+        httpClient.cancelAll();
+        httpClient.cancelAll();
+
+        assertEquals(0, cancelLatch.getCount());
+    }
 
     @Test(timeout = 1000)
-    public void postsUnprocessableEntityExceptionOn422() throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(422, "There was an error");
+    public void cancelAll_doesNotCancelRequestsWithoutACallback() {
+        Future future = mock(Future.class);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool);
 
-        assertExceptionIsPosted(httpClient, UnprocessableEntityException.class, "There was an error");
+        httpClient.post("http://example.com/", "{}", null);
+        httpClient.cancelAll();
+
+        verify(future, never()).cancel(anyBoolean());
     }
 
     @Test(timeout = 1000)
-    public void postsUnknownExceptionOnUnrecognizedStatusCode()
+    public void cancelAll_doesNotCancelRequestsToUncancellablePaths() {
+        Future future = mock(Future.class);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool)
+                .setCancellable("http://example.com/analytics", false);
+
+        httpClient.post("http://example.com/analytics/events", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {}
+
+            @Override
+            public void failure(Exception exception) {}
+        });
+        httpClient.cancelAll();
+
+        verify(future, never()).cancel(anyBoolean());
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_cancelsCoalescedRequestWhenEveryCallerCancelled() {
+        Future future = mock(Future.class);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool)
+                .setCoalesceRequests(true);
+        HttpResponseCallback callback = new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {}
+
+            @Override
+            public void failure(Exception exception) {}
+        };
+
+        httpClient.get("http://example.com/cancelled-coalesced", callback);
+        httpClient.get("http://example.com/cancelled-coalesced", callback);
+        httpClient.cancelAll();
+
+        verify(threadPool).submit(any(Runnable.class));
+        verify(future).cancel(false);
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_doesNotCancelCoalescedRequestWhileAnotherCallerWaits() {
+        Future future = mock(Future.class);
+        ExecutorService threadPool = mock(ExecutorService.class);
+        doReturn(future).when(threadPool).submit(any(Runnable.class));
+        HttpClient firstClient = new HttpClient()
+                .setThreadPool(threadPool)
+                .setCoalesceRequests(true);
+        HttpClient secondClient = new HttpClient()
+                .setThreadPool(threadPool)
+                .setCoalesceRequests(true);
+        HttpResponseCallback callback = new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {}
+
+            @Override
+            public void failure(Exception exception) {}
+        };
+
+        firstClient.get("http://example.com/shared-coalesced", callback);
+        secondClient.get("http://example.com/shared-coalesced", callback);
+        firstClient.cancelAll();
+
+        verify(future, never()).cancel(anyBoolean());
+
+        secondClient.cancelAll();
+
+        verify(future).cancel(false);
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_closesConnectionThatIsStillConnecting() throws Exception {
+        final CountDownLatch connectLatch = new CountDownLatch(1);
+        HttpURLConnection connection = connectionWithResponse(200);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                connectLatch.await();
+                throw new IOException("Connection closed");
+            }
+        }).when(connection).connect();
+        ExecutorService threadPool = Executors.newSingleThreadExecutor();
+        HttpClient httpClient = spy(new HttpClient().setThreadPool(threadPool));
+        doReturn(connection).when(httpClient).init(anyString());
+
+        httpClient.post("http://example.com/", "{}", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Cancelled request called success");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Cancelled request called failure");
+            }
+        });
+        verify(connection, timeout(500)).connect();
+        httpClient.cancelAll();
+
+        verify(connection).disconnect();
+        connectLatch.countDown();
+        threadPool.shutdown();
+        threadPool.awaitTermination(500, TimeUnit.MILLISECONDS);
+        waitForMainThread();
+        verify(connection, never()).getOutputStream();
+    }
+
+    @Test(timeout = 1000)
+    public void cancelAll_closesConnectionAndDoesNotCallCallback() throws Exception {
+        final CountDownLatch responseLatch = new CountDownLatch(1);
+        HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getResponseCode()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                responseLatch.await();
+                return 200;
+            }
+        });
+        ExecutorService threadPool = Executors.newSingleThreadExecutor();
+        HttpClient httpClient = spy(new HttpClient().setThreadPool(threadPool));
+        doReturn(connection).when(httpClient).init(anyString());
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                fail("Cancelled request called success");
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Cancelled request called failure");
+            }
+        });
+        verify(connection, timeout(500)).getResponseCode();
+        httpClient.cancelAll();
+
+        verify(connection).disconnect();
+        responseLatch.countDown();
+        threadPool.shutdown();
+        threadPool.awaitTermination(500, TimeUnit.MILLISECONDS);
+        waitForMainThread();
+    }
+
+    @Test(timeout = 1000)
+    public void usesDefaultTransportWhenNoTransportIsSet() throws IOException {
+        HttpURLConnection connection = new HttpClient().init("http://example.com/");
+
+        assertEquals("http://example.com/", connection.getURL().toString());
+    }
+
+    @Test(timeout = 1000)
+    public void init_opensConnectionsWithTransport() throws IOException {
+        final HttpURLConnection connection = mock(HttpURLConnection.class);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        assertEquals("http://example.com/", url.toString());
+                        return connection;
+                    }
+                });
+
+        assertEquals(connection, httpClient.init("http://example.com/"));
+        verify(connection).setRequestProperty("User-Agent",
+                "braintree/core/" + BuildConfig.VERSION_NAME);
+    }
+
+    @Test(timeout = 1000)
+    public void init_setsSSLSocketFactoryOnTransportConnections() throws IOException {
+        final HttpsURLConnection connection = mock(HttpsURLConnection.class);
+        SSLSocketFactory sslSocketFactory = mock(SSLSocketFactory.class);
+        HttpClient httpClient = new HttpClient()
+                .setSSLSocketFactory(sslSocketFactory)
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        httpClient.init("https://example.com/");
+
+        verify(connection).setSSLSocketFactory(sslSocketFactory);
+    }
+
+    @Test(timeout = 1000)
+    public void get_deliversResponsesFromTransport() throws IOException, InterruptedException {
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getInputStream()).thenReturn(streamFromString("response"));
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                assertEquals("response", responseBody);
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void post_notifiesRequestTimingListenerWhenRequestCompletes()
             throws IOException, InterruptedException {
-        HttpClient httpClient = clientWithExpectedResponse(418, "");
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getInputStream()).thenReturn(streamFromString("response"));
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                })
+                .setRequestTimingListener(new RequestTimingListener() {
+                    @Override
+                    public void onRequestTiming(RequestTiming timing) {
+                        assertEquals("POST", timing.getMethod());
+                        assertEquals("http://example.com/", timing.getUrl());
+                        assertEquals(RequestTiming.ENDPOINT_OTHER, timing.getEndpointClass());
+                        assertEquals(1, timing.getAttempts());
+                        assertEquals(200, timing.getResponseCode());
+                        assertEquals(4, timing.getBytesSent());
+                        assertEquals(8, timing.getBytesReceived());
+                        assertFalse(timing.isRequestCompressed());
+                        assertFalse(timing.isResponseCompressed());
+                        countDownLatch.countDown();
+                    }
+                });
+
+        httpClient.post("http://example.com/", "data", null);
 
-        assertExceptionIsPosted(httpClient, UnexpectedException.class, null);
+        countDownLatch.await();
+        verify(connection).connect();
+    }
+
+    @Test(timeout = 1000)
+    public void get_doesNotRecordTimingsWithoutARequestTimingListener()
+            throws IOException, InterruptedException {
+        final HttpURLConnection connection = connectionWithResponse(200);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        assertRequestsSucceed(httpClient);
+
+        verify(connection, never()).connect();
+    }
+
+    @Test(timeout = 1000)
+    public void getEndpointClass_returnsEndpointClassForPath() {
+        HttpClient httpClient = new HttpClient()
+                .setBaseUrl("http://example.com")
+                .setEndpointClass("/events", RequestTiming.ENDPOINT_ANALYTICS);
+
+        assertEquals(RequestTiming.ENDPOINT_ANALYTICS,
+                httpClient.getEndpointClass("POST", "http://example.com/events/batch"));
+        assertEquals(RequestTiming.ENDPOINT_OTHER,
+                httpClient.getEndpointClass("POST", "http://example.com/other"));
+    }
+
+    @Test(timeout = 1000)
+    public void getRequestPriority_returnsPriorityForPath() {
+        HttpClient httpClient = new HttpClient()
+                .setBaseUrl("http://example.com")
+                .setRequestPriority("/events", RequestPriority.BACKGROUND);
+
+        assertEquals(RequestPriority.BACKGROUND,
+                httpClient.getRequestPriority("POST", "http://example.com/events/batch"));
+        assertEquals(RequestPriority.NORMAL,
+                httpClient.getRequestPriority("POST", "http://example.com/other"));
+    }
+
+    @Test(timeout = 1000)
+    public void submitsRequestsToHttpThreadPoolWithPriority() {
+        HttpThreadPool threadPool = mock(HttpThreadPool.class);
+        HttpClient httpClient = new HttpClient()
+                .setThreadPool(threadPool)
+                .setRequestPriority("http://example.com/", RequestPriority.CRITICAL);
+
+        httpClient.get("http://example.com/", null);
+
+        verify(threadPool).submit(any(Runnable.class), eq(RequestPriority.CRITICAL));
+    }
+
+    @Test(timeout = 1000)
+    public void setCallbackExecutor_deliversResponsesOnCallbackExecutor()
+            throws IOException, InterruptedException {
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getInputStream()).thenReturn(streamFromString("response"));
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                })
+                .setCallbackExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        runnable.run();
+                    }
+                });
+
+        httpClient.get("http://example.com/", new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                assertEquals("response", responseBody);
+                assertFalse(Looper.getMainLooper() == Looper.myLooper());
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        });
+
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void get_deliversStreamingResponsesOnExecutorOfCallback()
+            throws IOException, InterruptedException {
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getInputStream()).thenReturn(streamFromString("response"));
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        httpClient.get("http://example.com/", new StreamingHttpResponseCallback<String>() {
+            @Override
+            public String decode(Reader responseBody) throws Exception {
+                return readString(responseBody);
+            }
+
+            @Override
+            public void onResponse(String response) {
+                assertEquals("response", response);
+                assertFalse(Looper.getMainLooper() == Looper.myLooper());
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+
+            @Override
+            public Executor getCallbackExecutor() {
+                return new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        runnable.run();
+                    }
+                };
+            }
+        });
+
+        countDownLatch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void get_synchronouslyReturnsResponseBody() throws Exception {
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getInputStream()).thenReturn(streamFromString("response"));
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        assertEquals("response", httpClient.get("http://example.com/"));
+    }
+
+    @Test(timeout = 1000)
+    public void post_synchronouslyThrowsMappedExceptions() throws Exception {
+        final HttpURLConnection connection = connectionWithResponse(401);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        try {
+            httpClient.post("http://example.com/", "{}");
+            fail("Expected an AuthenticationException");
+        } catch (AuthenticationException ignored) {}
+    }
+
+    @Test(timeout = 1000)
+    public void get_synchronouslyRetriesOnCallingThread() throws Exception {
+        final HttpURLConnection failedConnection = connectionWithResponse(503);
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getInputStream()).thenReturn(streamFromString("response"));
+        final Thread callingThread = Thread.currentThread();
+        final List<HttpURLConnection> connections = new ArrayList<>();
+        connections.add(failedConnection);
+        connections.add(connection);
+        HttpClient httpClient = new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(10, 10))
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        assertEquals(callingThread, Thread.currentThread());
+                        return connections.remove(0);
+                    }
+                });
+
+        assertEquals("response", httpClient.get("http://example.com/"));
+        assertTrue(connections.isEmpty());
+    }
+
+    @Test(timeout = 1000)
+    public void get_failsFastWhenCircuitIsOpen() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker().setFailureThreshold(1);
+        circuitBreaker.onFailure("example.com");
+        HttpTransport transport = mock(HttpTransport.class);
+        HttpClient httpClient = new HttpClient()
+                .setCircuitBreaker(circuitBreaker)
+                .setTransport(transport);
+
+        try {
+            httpClient.get("http://example.com/");
+            fail("Expected a CircuitOpenException");
+        } catch (CircuitOpenException ignored) {}
+
+        verify(transport, never()).openConnection(any(URL.class));
+    }
+
+    @Test(timeout = 1000)
+    public void get_makesCriticalRequestsWhenCircuitIsOpen() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker().setFailureThreshold(1);
+        circuitBreaker.onFailure("example.com");
+        final HttpURLConnection connection = connectionWithResponse(200);
+        HttpClient httpClient = new HttpClient()
+                .setCircuitBreaker(circuitBreaker)
+                .setRequestPriority("http://example.com/", RequestPriority.CRITICAL)
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        httpClient.get("http://example.com/");
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void get_opensCircuitOnServerErrors() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker().setFailureThreshold(2);
+        final HttpURLConnection connection = connectionWithResponse(500);
+        HttpClient httpClient = new HttpClient()
+                .setCircuitBreaker(circuitBreaker)
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                httpClient.get("http://example.com/");
+                fail("Expected a ServerException");
+            } catch (ServerException ignored) {}
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState("example.com"));
+    }
+
+    @Test(timeout = 1000)
+    public void get_failsWithoutConnectingWhenDeadlineHasPassed() throws Exception {
+        HttpTransport transport = mock(HttpTransport.class);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(transport);
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", Deadline.after(0, TimeUnit.MILLISECONDS),
+                new HttpResponseCallback() {
+                    @Override
+                    public void success(String responseBody) {
+                        fail("Request was successful");
+                    }
+
+                    @Override
+                    public void failure(Exception exception) {
+                        assertTrue(exception instanceof DeadlineExceededException);
+                        countDownLatch.countDown();
+                    }
+                });
+
+        countDownLatch.await();
+        verify(transport, never()).openConnection(any(URL.class));
+    }
+
+    @Test(timeout = 1000)
+    public void post_limitsTimeoutsToTimeRemainingBeforeDeadline() throws Exception {
+        final HttpURLConnection connection = connectionWithResponse(200);
+        when(connection.getConnectTimeout()).thenReturn(30000);
+        when(connection.getReadTimeout()).thenReturn(60000);
+        HttpClient httpClient = new HttpClient()
+                .setTransport(new HttpTransport() {
+                    @Override
+                    public HttpURLConnection openConnection(URL url) {
+                        return connection;
+                    }
+                });
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.post("http://example.com/", "{}", Deadline.after(5, TimeUnit.SECONDS),
+                new HttpResponseCallback() {
+                    @Override
+                    public void success(String responseBody) {
+                        countDownLatch.countDown();
+                    }
+
+                    @Override
+                    public void failure(Exception exception) {
+                        fail("Request failed");
+                    }
+                });
+
+        countDownLatch.await();
+        verify(connection).setConnectTimeout(and(gt(0), leq(5000)));
+        verify(connection).setReadTimeout(and(gt(0), leq(5000)));
+    }
+
+    @Test(timeout = 1000)
+    public void get_doesNotRetryPastDeadline() throws Exception {
+        final HttpURLConnection connection = connectionWithResponse(503);
+        HttpTransport transport = mock(HttpTransport.class);
+        when(transport.openConnection(any(URL.class))).thenReturn(connection);
+        HttpClient httpClient = new HttpClient()
+                .setRetryPolicy(new RetryPolicy().setBackoff(5000, 5000).setJitter(0))
+                .setTransport(transport);
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+
+        httpClient.get("http://example.com/", Deadline.after(1, TimeUnit.SECONDS),
+                new HttpResponseCallback() {
+                    @Override
+                    public void success(String responseBody) {
+                        fail("Request was successful");
+                    }
+
+                    @Override
+                    public void failure(Exception exception) {
+                        assertTrue(exception instanceof DownForMaintenanceException);
+                        countDownLatch.countDown();
+                    }
+                });
+
+        countDownLatch.await();
+        verify(transport, times(1)).openConnection(any(URL.class));
     }
 
     /* helpers */
@@ -413,6 +1882,57 @@ public class HttpClientTest {
         return httpClient;
     }
 
+    private void assertRequestsSucceed(HttpClient httpClient) throws InterruptedException {
+        final CountDownLatch countDownLatch = new CountDownLatch(2);
+        HttpResponseCallback callback = new HttpResponseCallback() {
+            @Override
+            public void success(String responseBody) {
+                countDownLatch.countDown();
+            }
+
+            @Override
+            public void failure(Exception exception) {
+                fail("Request failed");
+            }
+        };
+
+        httpClient.get("/", callback);
+        httpClient.post("/", "{}", callback);
+
+        countDownLatch.await();
+    }
+
+    private HttpURLConnection connectionWithOutputStream(OutputStream outputStream)
+            throws IOException {
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        when(connection.getOutputStream()).thenReturn(outputStream);
+        when(connection.getResponseCode()).thenReturn(200);
+        when(connection.getInputStream()).thenReturn(streamFromString(""));
+
+        return connection;
+    }
+
+    private void waitForMainThread() throws InterruptedException {
+        final CountDownLatch countDownLatch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                countDownLatch.countDown();
+            }
+        });
+        countDownLatch.await();
+    }
+
+    private HttpURLConnection connectionWithResponse(int responseCode) throws IOException {
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        when(connection.getOutputStream()).thenReturn(mock(OutputStream.class));
+        when(connection.getResponseCode()).thenReturn(responseCode);
+        when(connection.getInputStream()).thenReturn(streamFromString(""));
+        when(connection.getErrorStream()).thenReturn(streamFromString(""));
+
+        return connection;
+    }
+
     private InputStream streamFromString(String string) throws UnsupportedEncodingException {
         return new ByteArrayInputStream(string.getBytes("UTF-8"));
     }
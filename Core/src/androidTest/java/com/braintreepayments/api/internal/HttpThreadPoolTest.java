@@ -0,0 +1,308 @@
+package com.braintreepayments.api.internal;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class HttpThreadPoolTest {
+
+    @After
+    public void tearDown() {
+        HttpThreadPool.resetDefault();
+    }
+
+    @Test(timeout = 1000)
+    public void getDefault_returnsTheSameInstance() {
+        assertSame(HttpThreadPool.getDefault(), HttpThreadPool.getDefault());
+    }
+
+    @Test(timeout = 1000)
+    public void getDefault_isBoundedByDefaultMaxThreads() {
+        assertEquals(HttpThreadPool.DEFAULT_MAX_THREADS,
+                HttpThreadPool.getDefault().getMaximumPoolSize());
+    }
+
+    @Test(timeout = 1000)
+    public void setDefault_replacesDefaultThreadPool() {
+        HttpThreadPool threadPool = new HttpThreadPool(1, 1);
+        assertNotSame(threadPool, HttpThreadPool.getDefault());
+
+        HttpThreadPool.setDefault(threadPool);
+
+        assertSame(threadPool, HttpThreadPool.getDefault());
+        assertSame(threadPool, new HttpClient().mThreadPool);
+    }
+
+    @Test(timeout = 1000)
+    public void reportsThreadCountQueueDepthAndRejectedCount() throws InterruptedException {
+        HttpThreadPool threadPool = new HttpThreadPool(1, 1);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        Runnable blockingRunnable = new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ignored) {}
+            }
+        };
+
+        threadPool.submit(blockingRunnable);
+        startedLatch.await();
+        threadPool.submit(blockingRunnable);
+
+        try {
+            threadPool.submit(blockingRunnable);
+            fail("Expected request to be rejected");
+        } catch (RejectedExecutionException ignored) {}
+
+        assertEquals(1, threadPool.getThreadCount());
+        assertEquals(1, threadPool.getQueueDepth());
+        assertEquals(1, threadPool.getRejectedCount());
+
+        blockingLatch.countDown();
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void concurrentSubmitsNeverQueueMoreThanTheCapacity() throws InterruptedException {
+        final HttpThreadPool threadPool = new HttpThreadPool(1, 5);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ignored) {}
+            }
+        });
+        startedLatch.await();
+
+        final CountDownLatch submittersLatch = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10; j++) {
+                        try {
+                            threadPool.submit(new Runnable() {
+                                @Override
+                                public void run() {}
+                            });
+                        } catch (RejectedExecutionException ignored) {}
+                    }
+                    submittersLatch.countDown();
+                }
+            }).start();
+        }
+        submittersLatch.await();
+
+        assertEquals(5, threadPool.getQueueDepth());
+        assertEquals(75, threadPool.getRejectedCount());
+
+        blockingLatch.countDown();
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void createsDaemonThreads() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new HttpThreadPool(1, 1).submit(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(Thread.currentThread().isDaemon());
+                latch.countDown();
+            }
+        });
+
+        latch.await();
+    }
+
+    @Test(timeout = 1000)
+    public void runsQueuedRequestsInPriorityOrder() throws InterruptedException {
+        HttpThreadPool threadPool = new HttpThreadPool(1, 10);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        final CountDownLatch finishedLatch = new CountDownLatch(4);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ignored) {}
+            }
+        });
+        startedLatch.await();
+
+        threadPool.submit(recordingRunnable("background", order, finishedLatch),
+                RequestPriority.BACKGROUND);
+        threadPool.submit(recordingRunnable("normal", order, finishedLatch));
+        threadPool.submit(recordingRunnable("critical 1", order, finishedLatch),
+                RequestPriority.CRITICAL);
+        threadPool.submit(recordingRunnable("critical 2", order, finishedLatch),
+                RequestPriority.CRITICAL);
+        blockingLatch.countDown();
+        finishedLatch.await();
+
+        assertEquals(Arrays.asList("critical 1", "critical 2", "normal", "background"), order);
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void leavesAThreadFreeForRequestsWhileBackgroundRequestsRun()
+            throws InterruptedException {
+        HttpThreadPool threadPool = new HttpThreadPool(2, 10);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        final CountDownLatch criticalLatch = new CountDownLatch(1);
+        Runnable blockingRunnable = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ignored) {}
+            }
+        };
+
+        threadPool.submit(blockingRunnable, RequestPriority.BACKGROUND);
+        threadPool.submit(blockingRunnable, RequestPriority.BACKGROUND);
+        threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                criticalLatch.countDown();
+            }
+        }, RequestPriority.CRITICAL);
+
+        criticalLatch.await();
+        assertEquals(1, threadPool.getQueueDepth());
+
+        blockingLatch.countDown();
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void cancel_removesQueuedRequestFromQueue() throws InterruptedException {
+        HttpThreadPool threadPool = new HttpThreadPool(1, 1);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        Runnable blockingRunnable = new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ignored) {}
+            }
+        };
+
+        threadPool.submit(blockingRunnable);
+        startedLatch.await();
+        Future<?> queued = threadPool.submit(blockingRunnable);
+        assertEquals(1, threadPool.getQueueDepth());
+
+        queued.cancel(false);
+
+        assertEquals(0, threadPool.getQueueDepth());
+        threadPool.submit(blockingRunnable);
+        assertEquals(0, threadPool.getRejectedCount());
+
+        blockingLatch.countDown();
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void cancel_removesHeldBackBackgroundRequest() throws InterruptedException {
+        HttpThreadPool threadPool = new HttpThreadPool(2, 10);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        final CountDownLatch backgroundLatch = new CountDownLatch(1);
+        Runnable blockingRunnable = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException ignored) {}
+            }
+        };
+
+        threadPool.submit(blockingRunnable, RequestPriority.BACKGROUND);
+        Future<?> heldBack = threadPool.submit(blockingRunnable, RequestPriority.BACKGROUND);
+        assertEquals(1, threadPool.getQueueDepth());
+
+        heldBack.cancel(false);
+        assertEquals(0, threadPool.getQueueDepth());
+
+        blockingLatch.countDown();
+        threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                backgroundLatch.countDown();
+            }
+        }, RequestPriority.BACKGROUND);
+        backgroundLatch.await();
+        threadPool.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void reportsQueueLatencyPerPriority() throws InterruptedException {
+        HttpThreadPool threadPool = new HttpThreadPool(1, 10);
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        final CountDownLatch finishedLatch = new CountDownLatch(1);
+
+        threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                SystemClock.sleep(100);
+            }
+        });
+        startedLatch.await();
+        threadPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                finishedLatch.countDown();
+            }
+        }, RequestPriority.CRITICAL);
+        finishedLatch.await();
+
+        assertTrue(threadPool.getMaxQueueLatency(RequestPriority.CRITICAL) >= 50);
+        assertTrue(threadPool.getAverageQueueLatency(RequestPriority.CRITICAL) >= 50);
+        assertEquals(0, threadPool.getMaxQueueLatency(RequestPriority.BACKGROUND));
+        threadPool.shutdown();
+    }
+
+    private Runnable recordingRunnable(final String name, final List<String> order,
+            final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                latch.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,134 @@
+package com.braintreepayments.api.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RetryPolicyTest {
+
+    @Test(timeout = 1000)
+    public void getRetryDelay_backsOffExponentiallyUpToMaxBackoff() {
+        RetryPolicy retryPolicy = new RetryPolicy()
+                .setMaxAttempts(5)
+                .setBackoff(100, 300)
+                .setJitter(0);
+
+        assertEquals(100, retryPolicy.getRetryDelay(1, -1, 0));
+        assertEquals(200, retryPolicy.getRetryDelay(2, -1, 0));
+        assertEquals(300, retryPolicy.getRetryDelay(3, -1, 0));
+        assertEquals(300, retryPolicy.getRetryDelay(4, -1, 0));
+    }
+
+    @Test(timeout = 1000)
+    public void getRetryDelay_reducesDelayByUpToJitter() {
+        RetryPolicy retryPolicy = new RetryPolicy()
+                .setBackoff(1000, 1000)
+                .setJitter(0.5f);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = retryPolicy.getRetryDelay(1, -1, 0);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void getRetryDelay_returnsNoRetryAfterMaxAttempts() {
+        RetryPolicy retryPolicy = new RetryPolicy().setMaxAttempts(2);
+
+        assertTrue(retryPolicy.getRetryDelay(1, -1, 0) >= 0);
+        assertEquals(-1, retryPolicy.getRetryDelay(2, -1, 0));
+    }
+
+    @Test(timeout = 1000)
+    public void getRetryDelay_waitsForRetryAfter() {
+        RetryPolicy retryPolicy = new RetryPolicy()
+                .setBackoff(100, 100)
+                .setJitter(0);
+
+        assertEquals(2000, retryPolicy.getRetryDelay(1, 2000, 0));
+    }
+
+    @Test(timeout = 1000)
+    public void getRetryDelay_ignoresRetryAfterWhenNotHonored() {
+        RetryPolicy retryPolicy = new RetryPolicy()
+                .setBackoff(100, 100)
+                .setJitter(0)
+                .setHonorRetryAfter(false);
+
+        assertEquals(100, retryPolicy.getRetryDelay(1, 2000, 0));
+    }
+
+    @Test(timeout = 1000)
+    public void getRetryDelay_returnsNoRetryWhenRetryWouldStartAfterDeadline() {
+        RetryPolicy retryPolicy = new RetryPolicy()
+                .setBackoff(100, 100)
+                .setJitter(0)
+                .setDeadline(1000);
+
+        assertEquals(100, retryPolicy.getRetryDelay(1, -1, 900));
+        assertEquals(-1, retryPolicy.getRetryDelay(1, -1, 901));
+        assertEquals(-1, retryPolicy.getRetryDelay(1, 2000, 0));
+    }
+
+    @Test(timeout = 1000)
+    public void isRetryable_retriesTransientResponseCodes() {
+        RetryPolicy retryPolicy = new RetryPolicy();
+
+        assertTrue(retryPolicy.isRetryable(408));
+        assertTrue(retryPolicy.isRetryable(429));
+        assertTrue(retryPolicy.isRetryable(500));
+        assertTrue(retryPolicy.isRetryable(502));
+        assertTrue(retryPolicy.isRetryable(503));
+        assertTrue(retryPolicy.isRetryable(504));
+        assertFalse(retryPolicy.isRetryable(200));
+        assertFalse(retryPolicy.isRetryable(401));
+        assertFalse(retryPolicy.isRetryable(422));
+    }
+
+    @Test(timeout = 1000)
+    public void isRetryable_retriesNetworkErrors() {
+        RetryPolicy retryPolicy = new RetryPolicy();
+
+        assertTrue(retryPolicy.isRetryable(new IOException()));
+        assertTrue(retryPolicy.isRetryable(new SocketTimeoutException()));
+        assertFalse(retryPolicy.isRetryable(new MalformedURLException()));
+        assertFalse(retryPolicy.isRetryable(new SSLPeerUnverifiedException("")));
+        assertFalse(retryPolicy.isRetryable(new IllegalArgumentException()));
+    }
+
+    @Test(timeout = 1000)
+    public void isRetryable_onlyRetriesUnsentRequestsWhenSentRequestsAreNotRetried() {
+        RetryPolicy retryPolicy = new RetryPolicy()
+                .setRetrySentRequests(false);
+
+        assertTrue(retryPolicy.isRetryable(new IOException(), false));
+        assertFalse(retryPolicy.isRetryable(new SocketTimeoutException(), true));
+        assertTrue(retryPolicy.isRetryable(500, false));
+        assertFalse(retryPolicy.isRetryable(500, true));
+        assertFalse(retryPolicy.isRetryable(504, true));
+        assertTrue(retryPolicy.isRetryable(429, true));
+        assertTrue(retryPolicy.isRetryable(503, true));
+    }
+
+    @Test(timeout = 1000)
+    public void isRetryable_retriesSentRequestsByDefault() {
+        RetryPolicy retryPolicy = new RetryPolicy();
+
+        assertTrue(retryPolicy.isRetryable(new SocketTimeoutException(), true));
+        assertTrue(retryPolicy.isRetryable(500, true));
+    }
+}
@@ -0,0 +1,71 @@
+package com.braintreepayments.api.internal;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class TLSSocketFactoryTest {
+
+    @After
+    public void tearDown() {
+        TLSSocketFactory.setSessionCacheSize(TLSSocketFactory.DEFAULT_SESSION_CACHE_SIZE);
+        TLSSocketFactory.setSessionTimeout(TLSSocketFactory.DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    @Test(timeout = 1000)
+    public void sharesSSLContextBetweenFactories() throws SSLException {
+        assertSame(new TLSSocketFactory().getSSLContext(),
+                new TLSSocketFactory().getSSLContext());
+    }
+
+    @Test(timeout = 1000)
+    public void configuresDefaultSessionCache() throws SSLException {
+        SSLSessionContext sessionContext =
+                new TLSSocketFactory().getSSLContext().getClientSessionContext();
+
+        assertEquals(TLSSocketFactory.DEFAULT_SESSION_CACHE_SIZE,
+                sessionContext.getSessionCacheSize());
+        assertEquals(TLSSocketFactory.DEFAULT_SESSION_TIMEOUT_SECONDS,
+                sessionContext.getSessionTimeout());
+    }
+
+    @Test(timeout = 1000)
+    public void setSessionCacheSize_updatesExistingSessionCaches() throws SSLException {
+        TLSSocketFactory factory = new TLSSocketFactory();
+
+        TLSSocketFactory.setSessionCacheSize(5);
+
+        assertEquals(5, factory.getSSLContext().getClientSessionContext().getSessionCacheSize());
+    }
+
+    @Test(timeout = 1000)
+    public void setSessionTimeout_updatesExistingSessionCaches() throws SSLException {
+        TLSSocketFactory factory = new TLSSocketFactory();
+
+        TLSSocketFactory.setSessionTimeout(60);
+
+        assertEquals(60, factory.getSSLContext().getClientSessionContext().getSessionTimeout());
+    }
+
+    @Test(timeout = 1000)
+    public void throwsSSLExceptionForInvalidCertificates() {
+        try {
+            new TLSSocketFactory(new ByteArrayInputStream("not a certificate".getBytes()));
+            fail("Expected an SSLException");
+        } catch (SSLException ignored) {}
+    }
+}
@@ -0,0 +1,12 @@
+package com.braintreepayments.api.exceptions;
+
+/**
+ * Exception thrown when a request is not made because recent requests to the same host failed
+ * and the {@link com.braintreepayments.api.internal.CircuitBreaker} for the host is open.
+ */
+public class CircuitOpenException extends Exception {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
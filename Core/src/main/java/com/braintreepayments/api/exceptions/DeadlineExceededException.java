@@ -0,0 +1,12 @@
+package com.braintreepayments.api.exceptions;
+
+/**
+ * Exception thrown when a request is not made because the
+ * {@link com.braintreepayments.api.internal.Deadline} of the operation it belongs to has passed.
+ */
+public class DeadlineExceededException extends Exception {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package com.braintreepayments.api.interfaces;
+
+import com.braintreepayments.api.internal.CircuitBreaker;
+
+/**
+ * Receives state transitions of a {@link CircuitBreaker}.
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * Called on the thread that caused the transition, which may be a request thread.
+     *
+     * @param host the host whose circuit changed state.
+     * @param previousState the state before the transition.
+     * @param state the new state.
+     */
+    void onCircuitStateChanged(String host, CircuitBreaker.State previousState,
+            CircuitBreaker.State state);
+}
@@ -0,0 +1,24 @@
+package com.braintreepayments.api.interfaces;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+/**
+ * Receives the outcome of every attempt of a HTTP request, including attempts that are retried.
+ */
+public interface RequestAttemptListener {
+
+    /**
+     * @param url the url that was requested.
+     * @param attempt the number of the attempt, starting at 1.
+     * @param responseCode the HTTP status code of the response, or -1 if no response was received.
+     * @param exception the error that caused the attempt to fail before a response was received,
+     *        or {@code null}.
+     * @param durationMillis the time in milliseconds the attempt took.
+     * @param retryDelayMillis the time in milliseconds until the request is retried, or -1 if the
+     *        request will not be retried.
+     */
+    @WorkerThread
+    void onRequestAttempt(String url, int attempt, int responseCode, @Nullable Exception exception,
+            long durationMillis, long retryDelayMillis);
+}
@@ -0,0 +1,17 @@
+package com.braintreepayments.api.interfaces;
+
+import android.support.annotation.WorkerThread;
+
+import com.braintreepayments.api.internal.RequestTiming;
+
+/**
+ * Receives a {@link RequestTiming} for each completed HTTP request.
+ */
+public interface RequestTimingListener {
+
+    /**
+     * @param timing where the time of the request was spent.
+     */
+    @WorkerThread
+    void onRequestTiming(RequestTiming timing);
+}
@@ -0,0 +1,126 @@
+package com.braintreepayments.api.interfaces;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.braintreepayments.api.exceptions.UnexpectedException;
+import com.braintreepayments.api.internal.HttpCacheHeaders;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link HttpResponseCallback} that decodes the response body directly from the network stream
+ * on the thread that executed the request. Only the decoded result is posted to the callback
+ * executor, which is the main thread unless {@link #getCallbackExecutor()} or the
+ * {@link com.braintreepayments.api.internal.HttpClient} specify otherwise.
+ * <p/>
+ * One and only one of {@link #onResponse(Object)} or {@link #failure(Exception)} will be invoked
+ * in response to a request, unless the request is cancelled with
+ * {@link com.braintreepayments.api.internal.HttpClient#cancelAll()}, in which case only
+ * {@link #onCancel()} is invoked.
+ *
+ * @param <T> the type the response body is decoded into.
+ */
+public abstract class StreamingHttpResponseCallback<T> implements HttpResponseCallback {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Decode the body of a successful HTTP request. Exceptions thrown while decoding will be sent
+     * to {@link #failure(Exception)}.
+     *
+     * @param responseBody {@link Reader} for the response body, closed after this method returns.
+     * @return the decoded response.
+     */
+    @WorkerThread
+    public abstract T decode(Reader responseBody) throws Exception;
+
+    /**
+     * Decode the body of a successful HTTP request that was made over the network. Override this
+     * instead of {@link #decode(Reader)} to cache the response with its caching headers.
+     *
+     * @param responseBody {@link Reader} for the response body, closed after this method returns.
+     * @param cacheHeaders the caching headers of the response.
+     * @return the decoded response.
+     */
+    @WorkerThread
+    public T decode(Reader responseBody, HttpCacheHeaders cacheHeaders) throws Exception {
+        return decode(responseBody);
+    }
+
+    /**
+     * @return the {@code ETag} of a cached copy of the response, sent in an {@code If-None-Match}
+     * header so the server can respond with {@code 304 Not Modified}, or {@code null} to always
+     * receive the full response.
+     */
+    @Nullable
+    public String getETag() {
+        return null;
+    }
+
+    /**
+     * Called instead of {@link #decode(Reader, HttpCacheHeaders)} when the server responds
+     * {@code 304 Not Modified} to a request with an {@link #getETag()}.
+     *
+     * @param cacheHeaders the caching headers of the response.
+     * @return the cached response.
+     */
+    @WorkerThread
+    public T decodeNotModified(HttpCacheHeaders cacheHeaders) throws Exception {
+        throw new UnexpectedException("Received 304 Not Modified without a cached response");
+    }
+
+    /**
+     * @param response the decoded response to the successful HTTP request.
+     */
+    public abstract void onResponse(T response);
+
+    /**
+     * Called instead of {@link #onResponse(Object)} or {@link #failure(Exception)} when the
+     * request is cancelled, on the thread that cancelled it.
+     */
+    public void onCancel() {}
+
+    /**
+     * @return the {@link Executor} to invoke {@link #onResponse(Object)} and
+     * {@link #failure(Exception)} on, or {@code null} to use the callback executor of the
+     * {@link com.braintreepayments.api.internal.HttpClient} making the request.
+     */
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return null;
+    }
+
+    /**
+     * Decodes a response body that has already been read into a {@link String} and calls
+     * {@link #onResponse(Object)} with the result.
+     */
+    @Override
+    public final void success(String responseBody) {
+        T response;
+        try {
+            response = decode(new StringReader(responseBody));
+        } catch (Exception e) {
+            failure(e);
+            return;
+        }
+
+        onResponse(response);
+    }
+
+    /**
+     * Read the remainder of a {@link Reader} into a {@link String}, for decoders that require the
+     * full response body.
+     */
+    protected static String readString(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder(BUFFER_SIZE);
+        char[] buffer = new char[BUFFER_SIZE];
+        for (int count; (count = reader.read(buffer)) != -1; ) {
+            builder.append(buffer, 0, count);
+        }
+        return builder.toString();
+    }
+}
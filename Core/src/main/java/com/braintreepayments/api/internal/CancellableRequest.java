@@ -0,0 +1,169 @@
+package com.braintreepayments.api.internal;
+
+import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
+
+import java.io.Reader;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * An outstanding request made by {@link HttpClient} with a callback. Once cancelled the callback
+ * is never invoked and, if the request is not shared with other callers, the request is removed
+ * from the thread pool or its connection is closed. A {@link StreamingHttpResponseCallback} is
+ * told with {@link StreamingHttpResponseCallback#onCancel()} when a request it was still waiting
+ * on is cancelled.
+ */
+class CancellableRequest {
+
+    private final Set<CancellableRequest> mOutstandingRequests;
+    private final HttpResponseCallback mCallback;
+    private final StreamingHttpResponseCallback<?> mStreamingCallback;
+    private boolean mFinished;
+    private volatile boolean mCancelled;
+    private volatile Cancellable mRequest;
+
+    interface Cancellable {
+        void cancel();
+    }
+
+    /**
+     * @param outstandingRequests the set of outstanding requests of the {@link HttpClient}. The
+     * request is added to the set until its callback is invoked or it is cancelled.
+     * @param callback the callback for the request.
+     */
+    CancellableRequest(Set<CancellableRequest> outstandingRequests, HttpResponseCallback callback) {
+        mOutstandingRequests = outstandingRequests;
+
+        if (callback instanceof StreamingHttpResponseCallback) {
+            mStreamingCallback = (StreamingHttpResponseCallback<?>) callback;
+            mCallback = newStreamingCallback(mStreamingCallback);
+        } else {
+            mStreamingCallback = null;
+            mCallback = new CancellableCallback(callback);
+        }
+
+        mOutstandingRequests.add(this);
+    }
+
+    /**
+     * @return the callback to make the request with, which ignores responses once cancelled.
+     */
+    HttpResponseCallback getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * @param request the network request to stop when cancelled.
+     */
+    void setRequest(Cancellable request) {
+        mRequest = request;
+        if (mCancelled) {
+            request.cancel();
+        }
+    }
+
+    void cancel() {
+        boolean wasWaiting;
+        synchronized (this) {
+            wasWaiting = !mFinished && !mCancelled;
+            mCancelled = true;
+        }
+        mOutstandingRequests.remove(this);
+
+        Cancellable request = mRequest;
+        if (request != null) {
+            request.cancel();
+        }
+
+        if (wasWaiting && mStreamingCallback != null) {
+            mStreamingCallback.onCancel();
+        }
+    }
+
+    private synchronized boolean finish() {
+        mOutstandingRequests.remove(this);
+        if (mCancelled) {
+            return false;
+        }
+
+        mFinished = true;
+        return true;
+    }
+
+    private <R> CancellableStreamingCallback<R> newStreamingCallback(
+            StreamingHttpResponseCallback<R> callback) {
+        return new CancellableStreamingCallback<>(callback);
+    }
+
+    private class CancellableCallback implements HttpResponseCallback {
+
+        private final HttpResponseCallback mDelegate;
+
+        CancellableCallback(HttpResponseCallback delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void success(String responseBody) {
+            if (finish()) {
+                mDelegate.success(responseBody);
+            }
+        }
+
+        @Override
+        public void failure(Exception exception) {
+            if (finish()) {
+                mDelegate.failure(exception);
+            }
+        }
+    }
+
+    private class CancellableStreamingCallback<R> extends StreamingHttpResponseCallback<R> {
+
+        private final StreamingHttpResponseCallback<R> mDelegate;
+
+        CancellableStreamingCallback(StreamingHttpResponseCallback<R> delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public R decode(Reader responseBody) throws Exception {
+            return mDelegate.decode(responseBody);
+        }
+
+        @Override
+        public R decode(Reader responseBody, HttpCacheHeaders cacheHeaders) throws Exception {
+            return mDelegate.decode(responseBody, cacheHeaders);
+        }
+
+        @Override
+        public String getETag() {
+            return mDelegate.getETag();
+        }
+
+        @Override
+        public R decodeNotModified(HttpCacheHeaders cacheHeaders) throws Exception {
+            return mDelegate.decodeNotModified(cacheHeaders);
+        }
+
+        @Override
+        public Executor getCallbackExecutor() {
+            return mDelegate.getCallbackExecutor();
+        }
+
+        @Override
+        public void onResponse(R response) {
+            if (finish()) {
+                mDelegate.onResponse(response);
+            }
+        }
+
+        @Override
+        public void failure(Exception exception) {
+            if (finish()) {
+                mDelegate.failure(exception);
+            }
+        }
+    }
+}
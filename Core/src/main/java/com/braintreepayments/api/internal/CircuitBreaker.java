@@ -0,0 +1,199 @@
+package com.braintreepayments.api.internal;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import com.braintreepayments.api.interfaces.CircuitBreakerListener;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops {@link HttpClient}s from making requests to a host that is failing. Each host has its own
+ * circuit. After {@link #setFailureThreshold(int)} consecutive timeouts, network errors or 5xx
+ * responses the circuit opens and requests to the host fail immediately with a
+ * {@link com.braintreepayments.api.exceptions.CircuitOpenException}. Once
+ * {@link #setOpenDuration(long)} has passed a single probe request is let through. The circuit
+ * closes if the probe gets a response other than a 5xx, and opens again if the probe fails.
+ * <p/>
+ * Requests with {@link RequestPriority#CRITICAL} are always made. Their results still open and
+ * close the circuit.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION = TimeUnit.SECONDS.toMillis(30);
+
+    private static CircuitBreaker sDefaultCircuitBreaker;
+
+    private final Map<String, Circuit> mCircuits = new HashMap<>();
+
+    private int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long mOpenDuration = DEFAULT_OPEN_DURATION;
+    private volatile CircuitBreakerListener mListener;
+
+    /**
+     * @return the process wide {@link CircuitBreaker} shared by Braintree and PayPal clients.
+     */
+    public static synchronized CircuitBreaker getDefault() {
+        if (sDefaultCircuitBreaker == null) {
+            sDefaultCircuitBreaker = new CircuitBreaker();
+        }
+
+        return sDefaultCircuitBreaker;
+    }
+
+    @VisibleForTesting
+    static synchronized void resetDefault() {
+        sDefaultCircuitBreaker = null;
+    }
+
+    /**
+     * @param failureThreshold the number of consecutive failed requests to a host that open its
+     * circuit. Defaults to {@link #DEFAULT_FAILURE_THRESHOLD}.
+     * @return {@link CircuitBreaker} for method chaining.
+     */
+    public CircuitBreaker setFailureThreshold(int failureThreshold) {
+        mFailureThreshold = Math.max(1, failureThreshold);
+        return this;
+    }
+
+    /**
+     * @param openDuration the time in milliseconds a circuit stays open before a probe request is
+     * allowed. Defaults to {@link #DEFAULT_OPEN_DURATION}.
+     * @return {@link CircuitBreaker} for method chaining.
+     */
+    public CircuitBreaker setOpenDuration(long openDuration) {
+        mOpenDuration = Math.max(0, openDuration);
+        return this;
+    }
+
+    /**
+     * @param listener the {@link CircuitBreakerListener} to notify of state transitions, or
+     * {@code null} to stop notifying.
+     * @return {@link CircuitBreaker} for method chaining.
+     */
+    public CircuitBreaker setListener(CircuitBreakerListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * @param host the host of the circuit.
+     * @return the current {@link State} of the circuit for the host.
+     */
+    public State getState(String host) {
+        synchronized (mCircuits) {
+            Circuit circuit = mCircuits.get(host);
+            return (circuit == null) ? State.CLOSED : circuit.mState;
+        }
+    }
+
+    /**
+     * @return {@code true} if a request to the host may be made. An open circuit whose open
+     * duration has passed moves to {@link State#HALF_OPEN} and allows the calling request as its
+     * probe.
+     */
+    boolean allowRequest(String host) {
+        State previousState;
+        synchronized (mCircuits) {
+            Circuit circuit = mCircuits.get(host);
+            if (circuit == null || circuit.mState == State.CLOSED) {
+                return true;
+            }
+
+            // an open circuit waits for the open duration, a half open circuit for its probe. A
+            // probe that never reports back, e.g. because it was cancelled, is replaced after the
+            // same duration.
+            long now = SystemClock.elapsedRealtime();
+            if (now - circuit.mOpenedAt < mOpenDuration) {
+                return false;
+            }
+
+            previousState = circuit.mState;
+            circuit.mState = State.HALF_OPEN;
+            circuit.mOpenedAt = now;
+        }
+
+        if (previousState != State.HALF_OPEN) {
+            notifyListener(host, previousState, State.HALF_OPEN);
+        }
+
+        return true;
+    }
+
+    /**
+     * Record that a request to the host received a response that was not a 5xx.
+     */
+    void onSuccess(String host) {
+        State previousState;
+        synchronized (mCircuits) {
+            Circuit circuit = mCircuits.remove(host);
+            if (circuit == null || circuit.mState == State.CLOSED) {
+                return;
+            }
+
+            previousState = circuit.mState;
+        }
+
+        notifyListener(host, previousState, State.CLOSED);
+    }
+
+    /**
+     * Record that a request to the host timed out, failed to connect or received a 5xx response.
+     */
+    void onFailure(String host) {
+        State previousState;
+        synchronized (mCircuits) {
+            Circuit circuit = mCircuits.get(host);
+            if (circuit == null) {
+                circuit = new Circuit();
+                mCircuits.put(host, circuit);
+            }
+
+            circuit.mFailures++;
+            previousState = circuit.mState;
+            if (previousState == State.OPEN ||
+                    (previousState == State.CLOSED && circuit.mFailures < mFailureThreshold)) {
+                return;
+            }
+
+            circuit.mState = State.OPEN;
+            circuit.mOpenedAt = SystemClock.elapsedRealtime();
+        }
+
+        notifyListener(host, previousState, State.OPEN);
+    }
+
+    /**
+     * @return {@code true} if the exception indicates the host could not be reached in time.
+     */
+    static boolean isFailure(Exception exception) {
+        return exception instanceof InterruptedIOException ||
+                exception instanceof SocketException ||
+                exception instanceof UnknownHostException;
+    }
+
+    private void notifyListener(String host, State previousState, State state) {
+        CircuitBreakerListener listener = mListener;
+        if (listener != null) {
+            listener.onCircuitStateChanged(host, previousState, state);
+        }
+    }
+
+    private static class Circuit {
+        private State mState = State.CLOSED;
+        private int mFailures;
+        private long mOpenedAt;
+    }
+}
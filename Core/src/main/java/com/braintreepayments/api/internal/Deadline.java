@@ -0,0 +1,55 @@
+package com.braintreepayments.api.internal;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation, and every request it makes, must finish. Passing the
+ * same {@link Deadline} to each step of a chained operation bounds the total time of the
+ * operation: each request is given the time that remains as its connect and read timeouts, and
+ * requests that would start after the deadline fail with a
+ * {@link com.braintreepayments.api.exceptions.DeadlineExceededException}.
+ */
+public class Deadline {
+
+    private final long mExpiresAt;
+
+    private Deadline(long expiresAt) {
+        mExpiresAt = expiresAt;
+    }
+
+    /**
+     * @param duration the time from now until the deadline.
+     * @param unit the {@link TimeUnit} of {@code duration}.
+     * @return a {@link Deadline} that expires after the given duration.
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(SystemClock.elapsedRealtime() + unit.toMillis(duration));
+    }
+
+    /**
+     * @return the time in milliseconds until the deadline, or 0 if it has passed.
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, mExpiresAt - SystemClock.elapsedRealtime());
+    }
+
+    public boolean isExpired() {
+        return getRemainingMillis() == 0;
+    }
+
+    /**
+     * @param timeout a timeout in milliseconds, where 0 means no timeout.
+     * @return the smaller of the timeout and the time remaining until the deadline, at least 1 so
+     * it is never mistaken for no timeout.
+     */
+    int limit(int timeout) {
+        long remaining = Math.max(1, getRemainingMillis());
+        if (timeout == 0 || remaining < timeout) {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        return timeout;
+    }
+}
@@ -0,0 +1,78 @@
+package com.braintreepayments.api.internal;
+
+import android.support.annotation.Nullable;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The caching headers of a HTTP response: the {@code ETag} to revalidate the response with and
+ * the {@code max-age} of the {@code Cache-Control} header.
+ */
+public class HttpCacheHeaders {
+
+    /**
+     * Returned by {@link #getMaxAgeMillis()} when the response does not specify a max age.
+     */
+    public static final long NO_MAX_AGE = -1;
+
+    /**
+     * Headers of a response without caching headers.
+     */
+    public static final HttpCacheHeaders NONE = new HttpCacheHeaders(null, NO_MAX_AGE);
+
+    private final String mETag;
+    private final long mMaxAgeMillis;
+
+    public HttpCacheHeaders(@Nullable String eTag, long maxAgeMillis) {
+        mETag = eTag;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    static HttpCacheHeaders fromConnection(HttpURLConnection connection) {
+        return new HttpCacheHeaders(connection.getHeaderField("ETag"),
+                parseMaxAge(connection.getHeaderField("Cache-Control")));
+    }
+
+    /**
+     * @return the {@code ETag} of the response, or {@code null} if it has none.
+     */
+    @Nullable
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * @return the time in milliseconds the response may be used for without revalidating it, 0
+     *         if it must always be revalidated, or {@link #NO_MAX_AGE} if not specified.
+     */
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+
+    /**
+     * @param cacheControl the value of a {@code Cache-Control} header.
+     * @return the max age in milliseconds, 0 for {@code no-cache} or {@code no-store}, or
+     *         {@link #NO_MAX_AGE} if the header does not specify one.
+     */
+    static long parseMaxAge(@Nullable String cacheControl) {
+        if (cacheControl == null) {
+            return NO_MAX_AGE;
+        }
+
+        long maxAge = NO_MAX_AGE;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            } else if (directive.startsWith("max-age=")) {
+                try {
+                    long seconds = Long.parseLong(directive.substring(8).replace("\"", "").trim());
+                    maxAge = TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+
+        return maxAge;
+    }
+}
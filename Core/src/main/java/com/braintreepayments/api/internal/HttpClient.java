@@ -2,11 +2,15 @@ package com.braintreepayments.api.internal;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 
 import com.braintreepayments.api.core.BuildConfig;
 import com.braintreepayments.api.exceptions.AuthenticationException;
+import com.braintreepayments.api.exceptions.CircuitOpenException;
+import com.braintreepayments.api.exceptions.DeadlineExceededException;
 import com.braintreepayments.api.exceptions.AuthorizationException;
 import com.braintreepayments.api.exceptions.DownForMaintenanceException;
 import com.braintreepayments.api.exceptions.ServerException;
@@ -14,18 +18,35 @@ import com.braintreepayments.api.exceptions.UnexpectedException;
 import com.braintreepayments.api.exceptions.UnprocessableEntityException;
 import com.braintreepayments.api.exceptions.UpgradeRequiredException;
 import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.interfaces.RequestAttemptListener;
+import com.braintreepayments.api.interfaces.RequestTimingListener;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLException;
@@ -35,6 +56,7 @@ import static java.net.HttpURLConnection.HTTP_ACCEPTED;
 import static java.net.HttpURLConnection.HTTP_CREATED;
 import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
@@ -44,22 +66,45 @@ public class HttpClient<T extends HttpClient> {
     private static final String METHOD_GET = "GET";
     private static final String METHOD_POST = "POST";
     private static final String UTF_8 = "UTF-8";
+    private static final int NO_RESPONSE = -1;
+    private static final long NO_RETRY = -1;
+    private static final long NO_RETRY_AFTER = -1;
+    private static final ThreadLocal<RequestTiming> sCurrentTiming = new ThreadLocal<>();
+
+    private static volatile RequestTimingListener sDefaultRequestTimingListener;
 
     private final Handler mMainThreadHandler;
+    private final Map<String, Integer> mCompressedRequestPaths = new ConcurrentHashMap<>();
+    private final Map<String, RetryPolicy> mRetryPolicies = new ConcurrentHashMap<>();
+    private final Set<CancellableRequest> mOutstandingRequests =
+            Collections.newSetFromMap(new ConcurrentHashMap<CancellableRequest, Boolean>());
 
     @VisibleForTesting
-    protected final ExecutorService mThreadPool;
+    protected ExecutorService mThreadPool;
 
     private String mUserAgent;
     private SSLSocketFactory mSSLSocketFactory;
+    private HttpTransport mTransport = HttpTransport.DEFAULT;
     private int mConnectTimeout;
     private int mReadTimeout;
+    private boolean mReuseConnections;
+    private boolean mCoalesceRequests;
+    private RetryPolicy mRetryPolicy;
+    private Executor mCallbackExecutor;
+    private volatile RequestAttemptListener mRequestAttemptListener;
+    private volatile RequestTimingListener mRequestTimingListener;
+    private volatile CircuitBreaker mCircuitBreaker;
+    private final Map<String, String> mEndpointClasses = new ConcurrentHashMap<>();
+    private final Map<String, RequestPriority> mRequestPriorities = new ConcurrentHashMap<>();
+    private final Set<String> mUncancellablePaths =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     protected String mBaseUrl;
 
     public HttpClient() {
-        mThreadPool =  Executors.newCachedThreadPool();
+        mThreadPool = HttpThreadPool.getDefault();
         mMainThreadHandler = new Handler(Looper.getMainLooper());
+        mCallbackExecutor = new MainThreadExecutor(mMainThreadHandler);
         mUserAgent = "braintree/core/" + BuildConfig.VERSION_NAME;
         mConnectTimeout = (int) TimeUnit.SECONDS.toMillis(30);
         mReadTimeout = (int) TimeUnit.SECONDS.toMillis(30);
@@ -91,6 +136,241 @@ public class HttpClient<T extends HttpClient> {
         return (T) this;
     }
 
+    /**
+     * @param transport the {@link HttpTransport} to open connections with, or {@code null} for
+     * {@link HttpTransport#DEFAULT}.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setTransport(HttpTransport transport) {
+        mTransport = (transport == null) ? HttpTransport.DEFAULT : transport;
+        return (T) this;
+    }
+
+    /**
+     * @param threadPool the {@link ExecutorService} to execute requests on. Defaults to the
+     * shared {@link HttpThreadPool#getDefault()}.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setThreadPool(ExecutorService threadPool) {
+        mThreadPool = threadPool;
+        return (T) this;
+    }
+
+    /**
+     * Deliver responses and errors on the given {@link Executor} instead of the main thread.
+     * A {@link StreamingHttpResponseCallback} can override this for a single request with
+     * {@link StreamingHttpResponseCallback#getCallbackExecutor()}.
+     *
+     * @param callbackExecutor the {@link Executor} to invoke callbacks on, or {@code null} for the
+     * main thread.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setCallbackExecutor(Executor callbackExecutor) {
+        mCallbackExecutor = (callbackExecutor == null) ?
+                new MainThreadExecutor(mMainThreadHandler) : callbackExecutor;
+        return (T) this;
+    }
+
+    /**
+     * Compress the body of POST requests to a path or url with gzip. Requests are compressed
+     * when their url starts with the given path or url and their body is at least
+     * {@code minimumBodySize} bytes long. The server must accept
+     * {@code Content-Encoding: gzip} for the path.
+     *
+     * @param path the path or url to compress request bodies for.
+     * @param minimumBodySize the minimum length of a request body before it will be compressed.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T enableRequestCompression(String path, int minimumBodySize) {
+        mCompressedRequestPaths.put(path, minimumBodySize);
+        return (T) this;
+    }
+
+    /**
+     * @param retryPolicy the {@link RetryPolicy} for GET requests that do not match a path set
+     * with {@link #setRetryPolicy(String, RetryPolicy)}, or {@code null} to not retry them. GET
+     * requests are not retried by default.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setRetryPolicy(RetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+        return (T) this;
+    }
+
+    /**
+     * Retry GET and POST requests to a path or url with the given {@link RetryPolicy}. Requests
+     * use the policy when their url starts with the given path or url. POST requests are only
+     * retried when they match a path, and should only be retried when the server can deduplicate
+     * them, for example with {@link RetryPolicy#setIdempotencyKeyHeader(String)}.
+     *
+     * @param path the path or url to retry requests for.
+     * @param retryPolicy the {@link RetryPolicy} to use for requests to the path.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setRetryPolicy(String path, RetryPolicy retryPolicy) {
+        mRetryPolicies.put(path, retryPolicy);
+        return (T) this;
+    }
+
+    /**
+     * @param listener the {@link RequestAttemptListener} to notify after each attempt of a request,
+     * or {@code null} to stop notifying.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setRequestAttemptListener(RequestAttemptListener listener) {
+        mRequestAttemptListener = listener;
+        return (T) this;
+    }
+
+    /**
+     * @param coalesceRequests {@code true} to merge GET requests with identical GET requests that
+     * are already in flight from any {@link HttpClient} with coalescing enabled, so a single
+     * network request is made and its result delivered to every callback. Defaults to
+     * {@code false}.
+     * @return {@link HttpClient} for method chaining.
+     * @see #getRequestKey(String)
+     */
+    @SuppressWarnings("unchecked")
+    public T setCoalesceRequests(boolean coalesceRequests) {
+        mCoalesceRequests = coalesceRequests;
+        return (T) this;
+    }
+
+    /**
+     * @return the number of GET requests that were not made because an identical request was
+     * already in flight.
+     */
+    public static long getCoalescedRequestCount() {
+        return RequestCoalescer.getCoalescedRequestCount();
+    }
+
+    /**
+     * Cancel all outstanding requests made with a callback. Their callbacks will not be invoked,
+     * requests waiting for a thread are removed from the thread pool and requests in progress have
+     * their connection closed. Requests made without a callback, and requests to paths that are
+     * not cancellable because of {@link #setCancellable(String, boolean)}, such as analytics
+     * uploads, are left to complete and their callbacks are invoked.
+     */
+    public void cancelAll() {
+        for (CancellableRequest request : mOutstandingRequests) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * @param listener the {@link RequestTimingListener} to notify when a request made by this
+     * client completes, or {@code null} to use the listener set with
+     * {@link #setDefaultRequestTimingListener(RequestTimingListener)}. Timings are only recorded
+     * while a listener is set.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setRequestTimingListener(RequestTimingListener listener) {
+        mRequestTimingListener = listener;
+        return (T) this;
+    }
+
+    /**
+     * @param listener the {@link RequestTimingListener} to notify when a request made by any
+     * {@link HttpClient} without its own listener completes, or {@code null} to stop notifying.
+     */
+    public static void setDefaultRequestTimingListener(RequestTimingListener listener) {
+        sDefaultRequestTimingListener = listener;
+    }
+
+    /**
+     * Report requests to a path or url with the given endpoint class in {@link RequestTiming}s.
+     * Requests use the class when their url starts with the given path or url.
+     *
+     * @param path the path or url of the endpoint.
+     * @param endpointClass the endpoint class, one of the {@code RequestTiming.ENDPOINT_}
+     * constants.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setEndpointClass(String path, String endpointClass) {
+        mEndpointClasses.put(path, endpointClass);
+        return (T) this;
+    }
+
+    /**
+     * Run requests to a path or url with the given {@link RequestPriority} when the thread pool
+     * is an {@link HttpThreadPool}. Requests use the priority when their url starts with the
+     * given path or url, other requests run with {@link RequestPriority#NORMAL}.
+     *
+     * @param path the path or url of the endpoint.
+     * @param priority the {@link RequestPriority} of requests to the endpoint.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setRequestPriority(String path, RequestPriority priority) {
+        mRequestPriorities.put(path, priority);
+        return (T) this;
+    }
+
+    /**
+     * Leave requests to a path or url to complete when {@link #cancelAll()} is called, for
+     * requests whose callback must always run, such as uploads that clean up after themselves.
+     * Requests use the setting when their url starts with the given path or url.
+     *
+     * @param path the path or url of the endpoint.
+     * @param cancellable {@code false} to leave requests to the endpoint to complete. Defaults to
+     * {@code true}.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setCancellable(String path, boolean cancellable) {
+        if (cancellable) {
+            mUncancellablePaths.remove(path);
+        } else {
+            mUncancellablePaths.add(path);
+        }
+        return (T) this;
+    }
+
+    /**
+     * @param circuitBreaker the {@link CircuitBreaker} that pauses requests to failing hosts, or
+     * {@code null} to always make requests. Defaults to {@code null}.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        mCircuitBreaker = circuitBreaker;
+        return (T) this;
+    }
+
+    /**
+     * @param reuseConnections {@code true} to return connections to the idle connection pool after
+     * each request, {@code false} to close the connection after each request. Defaults to
+     * {@code false}.
+     * @return {@link HttpClient} for method chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public T setReuseConnections(boolean reuseConnections) {
+        mReuseConnections = reuseConnections;
+        return (T) this;
+    }
+
+    /**
+     * @return the fraction of https requests made with the current {@link TLSSocketFactory} that
+     * reused a pooled connection instead of opening a new one. Returns 0 when no requests have
+     * been made or a different {@link SSLSocketFactory} is set.
+     */
+    public float getConnectionReuseRate() {
+        if (mSSLSocketFactory instanceof TLSSocketFactory) {
+            return ((TLSSocketFactory) mSSLSocketFactory).getConnectionReuseRate();
+        }
+
+        return 0;
+    }
+
     /**
      * @param baseUrl the base url to use when only a path is supplied to
      * {@link #get(String, HttpResponseCallback)} or {@link #post(String, String, HttpResponseCallback)}
@@ -129,36 +409,66 @@ public class HttpClient<T extends HttpClient> {
      * @param path The path or url to request from the server via GET
      * @param callback The {@link HttpResponseCallback} to receive the response or error.
      */
-    public void get(final String path, final HttpResponseCallback callback) {
+    public void get(String path, HttpResponseCallback callback) {
+        submitGet(path, null, callback);
+    }
+
+    /**
+     * Make a HTTP GET request that must finish before the given {@link Deadline}. The connect and
+     * read timeouts of the request are shortened to the time remaining, and the request fails
+     * with a {@link com.braintreepayments.api.exceptions.DeadlineExceededException} if it would
+     * start or be retried after the deadline.
+     *
+     * @param path The path or url to request from the server via GET
+     * @param deadline The {@link Deadline} of the request, or {@code null} for no deadline.
+     * @param callback The {@link HttpResponseCallback} to receive the response or error.
+     */
+    public void get(String path, Deadline deadline, HttpResponseCallback callback) {
+        if (deadline == null) {
+            get(path, callback);
+        } else {
+            submitGet(path, deadline, callback);
+        }
+    }
+
+    private void submitGet(String path, Deadline deadline, HttpResponseCallback callback) {
         if (path == null) {
             postCallbackOnMainThread(callback, new IllegalArgumentException("Path cannot be null"));
             return;
         }
 
-        final String url;
-        if (path.startsWith("http")) {
-            url = path;
-        } else {
-            url = mBaseUrl + path;
+        String url = resolve(path);
+        CancellableRequest cancellableRequest = null;
+        if (callback != null && isCancellable(url)) {
+            cancellableRequest = new CancellableRequest(mOutstandingRequests, callback);
         }
 
-        mThreadPool.submit(new Runnable() {
-            @Override
-            public void run() {
-                HttpURLConnection connection = null;
-                try {
-                    connection = init(url);
-                    connection.setRequestMethod(METHOD_GET);
-                    postCallbackOnMainThread(callback, parseResponse(connection));
-                } catch (Exception e) {
-                    postCallbackOnMainThread(callback, e);
-                } finally {
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
+        // requests with a deadline are not shared, another caller's deadline could cut them short
+        if (mCoalesceRequests && deadline == null) {
+            String requestKey = getRequestKey(url);
+            if (callback instanceof StreamingHttpResponseCallback) {
+                requestKey += " " + callback.getClass().getName();
+
+                String eTag = ((StreamingHttpResponseCallback<?>) callback).getETag();
+                if (eTag != null) {
+                    requestKey += " " + eTag;
                 }
             }
-        });
+
+            if (cancellableRequest != null) {
+                callback = cancellableRequest.getCallback();
+            }
+
+            callback = RequestCoalescer.coalesce(requestKey, callback, cancellableRequest);
+            if (callback != null) {
+                // the shared request is only stopped once every caller waiting on it cancelled
+                HttpRequest request = new HttpRequest(METHOD_GET, url, null, callback);
+                RequestCoalescer.setRequest(callback, request);
+                submit(request);
+            }
+        } else {
+            submit(newRequest(METHOD_GET, url, null, deadline, callback, cancellableRequest));
+        }
     }
 
     /**
@@ -169,45 +479,367 @@ public class HttpClient<T extends HttpClient> {
      * @param data The body of the POST request
      * @param callback The {@link HttpResponseCallback} to receive the response or error.
      */
-    public void post(final String path, final String data, final HttpResponseCallback callback) {
+    public void post(String path, String data, HttpResponseCallback callback) {
+        byte[] body;
+        try {
+            body = (data == null) ? null : data.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            postCallbackOnMainThread(callback, e);
+            return;
+        }
+
+        submitPost(path, body, null, callback);
+    }
+
+    /**
+     * Make a HTTP POST request that must finish before the given {@link Deadline}. The connect and
+     * read timeouts of the request are shortened to the time remaining, and the request fails
+     * with a {@link com.braintreepayments.api.exceptions.DeadlineExceededException} if it would
+     * start or be retried after the deadline.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The body of the POST request
+     * @param deadline The {@link Deadline} of the request, or {@code null} for no deadline.
+     * @param callback The {@link HttpResponseCallback} to receive the response or error.
+     */
+    public void post(String path, String data, Deadline deadline, HttpResponseCallback callback) {
+        if (deadline == null) {
+            post(path, data, callback);
+            return;
+        }
+
+        byte[] body;
+        try {
+            body = (data == null) ? null : data.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            postCallbackOnMainThread(callback, e);
+            return;
+        }
+
+        submitPost(path, body, deadline, callback);
+    }
+
+    /**
+     * Make a HTTP POST request with a body that is already UTF-8 encoded, using the base url and
+     * path provided. If the path is a full url, it will be used instead of the previously
+     * provided url. The body is sent as is, without being copied or buffered by the connection.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The UTF-8 encoded body of the POST request
+     * @param callback The {@link HttpResponseCallback} to receive the response or error.
+     */
+    public void post(String path, byte[] data, HttpResponseCallback callback) {
+        submitPost(path, data, null, callback);
+    }
+
+    /**
+     * Make a HTTP GET request on the calling thread using the base url and path provided. If the
+     * path is a full url, it will be used instead of the previously provided url. Retries are
+     * made on the calling thread according to the {@link RetryPolicy} of the request.
+     *
+     * @param path The path or url to request from the server via GET
+     * @return the body of the response.
+     * @throws Exception the same exceptions that would be sent to
+     * {@link HttpResponseCallback#failure(Exception)} by {@link #get(String, HttpResponseCallback)}.
+     */
+    @WorkerThread
+    public String get(String path) throws Exception {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+
+        return execute(METHOD_GET, resolve(path), null);
+    }
+
+    /**
+     * Make a HTTP POST request on the calling thread using the base url and path provided. If the
+     * path is a full url, it will be used instead of the previously provided url. Retries are
+     * made on the calling thread according to the {@link RetryPolicy} of the request.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The body of the POST request
+     * @return the body of the response.
+     * @throws Exception the same exceptions that would be sent to
+     * {@link HttpResponseCallback#failure(Exception)} by
+     * {@link #post(String, String, HttpResponseCallback)}.
+     */
+    @WorkerThread
+    public String post(String path, String data) throws Exception {
+        return post(path, (data == null) ? null : data.getBytes(UTF_8));
+    }
+
+    /**
+     * Make a HTTP POST request with a body that is already UTF-8 encoded on the calling thread.
+     *
+     * @param path The path or url to request from the server via HTTP POST
+     * @param data The UTF-8 encoded body of the POST request
+     * @return the body of the response.
+     * @throws Exception the same exceptions that would be sent to
+     * {@link HttpResponseCallback#failure(Exception)} by
+     * {@link #post(String, byte[], HttpResponseCallback)}.
+     * @see #post(String, String)
+     */
+    @WorkerThread
+    public String post(String path, byte[] data) throws Exception {
+        if (path == null) {
+            throw new IllegalArgumentException("Path cannot be null");
+        }
+
+        return execute(METHOD_POST, resolve(path), data);
+    }
+
+    private String execute(String method, String url, byte[] data) throws Exception {
+        SynchronousCallback callback = new SynchronousCallback();
+        HttpRequest request = new HttpRequest(method, url, data, callback);
+        request.mSynchronous = true;
+
+        do {
+            request.mSubmitTime = SystemClock.elapsedRealtime();
+            request.run();
+        } while (request.awaitRetry());
+
+        return callback.getResponse();
+    }
+
+    private void submitPost(String path, byte[] data, Deadline deadline,
+            HttpResponseCallback callback) {
         if (path == null) {
             postCallbackOnMainThread(callback, new IllegalArgumentException("Path cannot be null"));
             return;
         }
 
-        mThreadPool.submit(new Runnable() {
-            @Override
-            public void run() {
-                HttpURLConnection connection = null;
-                try {
-                    if (path.startsWith("http")) {
-                        connection = init(path);
-                    } else {
-                        connection = init(mBaseUrl + path);
-                    }
+        String url = resolve(path);
+        CancellableRequest cancellableRequest = null;
+        if (callback != null && isCancellable(url)) {
+            cancellableRequest = new CancellableRequest(mOutstandingRequests, callback);
+        }
 
-                    connection.setRequestMethod(METHOD_POST);
-                    connection.setDoOutput(true);
+        submit(newRequest(METHOD_POST, url, data, deadline, callback, cancellableRequest));
+    }
 
-                    DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-                    out.writeBytes(data);
-                    out.flush();
-                    out.close();
+    /**
+     * @param url the url of a GET request.
+     * @return a key that is equal for GET requests that can share a single response when
+     * {@link #setCoalesceRequests(boolean)} is enabled. Subclasses that add per client headers
+     * to requests must include them in the key.
+     */
+    protected String getRequestKey(String url) {
+        return url;
+    }
 
-                    postCallbackOnMainThread(callback, parseResponse(connection));
-                } catch (Exception e) {
-                    postCallbackOnMainThread(callback, e);
-                } finally {
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
-                }
+    /**
+     * @param method the HTTP method of the request.
+     * @param url the url of the request.
+     * @return the endpoint class to report in the request's {@link RequestTiming}.
+     */
+    protected String getEndpointClass(String method, String url) {
+        for (Map.Entry<String, String> entry : mEndpointClasses.entrySet()) {
+            if (url.startsWith(resolve(entry.getKey()))) {
+                return entry.getValue();
             }
-        });
+        }
+
+        return RequestTiming.ENDPOINT_OTHER;
+    }
+
+    /**
+     * @param method the HTTP method of the request.
+     * @param url the url of the request.
+     * @return the {@link RequestPriority} to run the request with.
+     */
+    protected RequestPriority getRequestPriority(String method, String url) {
+        for (Map.Entry<String, RequestPriority> entry : mRequestPriorities.entrySet()) {
+            if (url.startsWith(resolve(entry.getKey()))) {
+                return entry.getValue();
+            }
+        }
+
+        return RequestPriority.NORMAL;
+    }
+
+    private boolean isCancellable(String url) {
+        for (String path : mUncancellablePaths) {
+            if (url.startsWith(resolve(path))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Nullable
+    private RequestTimingListener getRequestTimingListener() {
+        RequestTimingListener listener = mRequestTimingListener;
+        return (listener != null) ? listener : sDefaultRequestTimingListener;
+    }
+
+    /**
+     * Create a connection for the request and set its headers without making any network calls.
+     */
+    private HttpURLConnection openConnection(String method, String url, byte[] data,
+            boolean gzip, String idempotencyKeyHeader, String idempotencyKey,
+            @Nullable String eTag, @Nullable Deadline deadline) throws Exception {
+        HttpURLConnection connection = init(url);
+        connection.setRequestMethod(method);
+
+        if (eTag != null) {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+
+        if (deadline != null) {
+            connection.setConnectTimeout(deadline.limit(connection.getConnectTimeout()));
+            connection.setReadTimeout(deadline.limit(connection.getReadTimeout()));
+        }
+
+        if (METHOD_POST.equals(method)) {
+            connection.setDoOutput(true);
+
+            if (idempotencyKey != null) {
+                connection.setRequestProperty(idempotencyKeyHeader, idempotencyKey);
+            }
+
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                connection.setChunkedStreamingMode(0);
+            } else if (data != null) {
+                connection.setFixedLengthStreamingMode(data.length);
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Connect to the server before anything is sent, so a POST request that fails here is known
+     * not to have reached the server. GET requests connect when the response is read unless their
+     * timing is recorded.
+     */
+    private void connect(HttpURLConnection connection, String method, boolean gzip,
+            @Nullable RequestTiming timing) throws IOException {
+        if (timing != null) {
+            long connectStartTime = SystemClock.elapsedRealtime();
+            connection.connect();
+            timing.mConnectMillis = SystemClock.elapsedRealtime() - connectStartTime;
+            timing.mRequestCompressed = gzip;
+        } else if (METHOD_POST.equals(method)) {
+            connection.connect();
+        }
+    }
+
+    private void writeBody(HttpURLConnection connection, byte[] data, boolean gzip,
+            @Nullable RequestTiming timing) throws IOException {
+        OutputStream outputStream = connection.getOutputStream();
+        if (timing != null) {
+            outputStream = timing.countBytesSent(outputStream);
+        }
+
+        if (gzip) {
+            outputStream = new GZIPOutputStream(outputStream);
+        }
+
+        outputStream.write(data);
+        outputStream.flush();
+        outputStream.close();
+    }
+
+    @Nullable
+    private RetryPolicy getRetryPolicy(String method, String url) {
+        for (Map.Entry<String, RetryPolicy> entry : mRetryPolicies.entrySet()) {
+            if (url.startsWith(resolve(entry.getKey()))) {
+                return entry.getValue();
+            }
+        }
+
+        return METHOD_GET.equals(method) ? mRetryPolicy : null;
+    }
+
+    @Nullable
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private String resolve(String path) {
+        return path.startsWith("http") ? path : mBaseUrl + path;
+    }
+
+    private long getRetryAfterMillis(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return NO_RETRY_AFTER;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            long date = connection.getHeaderFieldDate("Retry-After", NO_RETRY_AFTER);
+            if (date == NO_RETRY_AFTER) {
+                return NO_RETRY_AFTER;
+            }
+
+            return Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    private boolean shouldCompressRequest(String url, byte[] data) {
+        if (data == null) {
+            return false;
+        }
+
+        for (Map.Entry<String, Integer> entry : mCompressedRequestPaths.entrySet()) {
+            if (url.startsWith(resolve(entry.getKey())) && data.length >= entry.getValue()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Response streams are read to the end and closed after each request, so when connections are
+     * reused the connection is left for {@link HttpURLConnection} to return to the idle pool.
+     */
+    private void release(HttpURLConnection connection) {
+        if (!mReuseConnections) {
+            connection.disconnect();
+        }
+    }
+
+    private HttpRequest newRequest(String method, String url, byte[] data, Deadline deadline,
+            HttpResponseCallback callback, CancellableRequest cancellableRequest) {
+        HttpRequest request;
+        if (cancellableRequest == null) {
+            request = new HttpRequest(method, url, data, callback);
+        } else {
+            request = new HttpRequest(method, url, data, cancellableRequest.getCallback());
+            cancellableRequest.setRequest(request);
+        }
+
+        request.mDeadline = deadline;
+        return request;
+    }
+
+    private void submit(HttpRequest request) {
+        if (getRequestTimingListener() != null) {
+            request.mSubmitTime = SystemClock.elapsedRealtime();
+        }
+
+        try {
+            if (mThreadPool instanceof HttpThreadPool) {
+                request.mFuture = ((HttpThreadPool) mThreadPool).submit(request, request.mPriority);
+            } else {
+                request.mFuture = mThreadPool.submit(request);
+            }
+        } catch (RejectedExecutionException e) {
+            postCallbackOnMainThread(request.mCallback, e);
+        }
     }
 
     protected HttpURLConnection init(String url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        HttpURLConnection connection = mTransport.openConnection(new URL(url));
 
         if (connection instanceof HttpsURLConnection) {
             if (mSSLSocketFactory == null) {
@@ -215,6 +847,10 @@ public class HttpClient<T extends HttpClient> {
             }
 
             ((HttpsURLConnection) connection).setSSLSocketFactory(mSSLSocketFactory);
+
+            if (mSSLSocketFactory instanceof TLSSocketFactory) {
+                ((TLSSocketFactory) mSSLSocketFactory).onRequest();
+            }
         }
 
         connection.setRequestProperty("Content-Type", "application/json");
@@ -250,12 +886,60 @@ public class HttpClient<T extends HttpClient> {
         }
     }
 
+    /**
+     * Decode the body of a successful response with the given {@link StreamingHttpResponseCallback}
+     * directly from the connection's input stream. A {@code 304 Not Modified} response to a
+     * request with an {@code ETag} is passed to
+     * {@link StreamingHttpResponseCallback#decodeNotModified(HttpCacheHeaders)}. Unsuccessful
+     * responses are handled by {@link #parseResponse(HttpURLConnection)}.
+     */
+    protected <R> R parseResponse(HttpURLConnection connection,
+            StreamingHttpResponseCallback<R> callback) throws Exception {
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HTTP_NOT_MODIFIED && callback.getETag() != null) {
+            return callback.decodeNotModified(HttpCacheHeaders.fromConnection(connection));
+        }
+
+        if (responseCode != HTTP_OK && responseCode != HTTP_CREATED && responseCode != HTTP_ACCEPTED) {
+            parseResponse(connection);
+        }
+
+        Reader reader = openReader(connection.getInputStream(),
+                "gzip".equals(connection.getContentEncoding()));
+        try {
+            return callback.decode(reader, HttpCacheHeaders.fromConnection(connection));
+        } finally {
+            drain(reader);
+            reader.close();
+        }
+    }
+
+    private void postResponse(HttpURLConnection connection, HttpResponseCallback callback)
+            throws Exception {
+        if (callback instanceof StreamingHttpResponseCallback) {
+            postDecodedResponse(connection, (StreamingHttpResponseCallback<?>) callback);
+        } else {
+            postCallbackOnMainThread(callback, parseResponse(connection));
+        }
+    }
+
+    private <R> void postDecodedResponse(HttpURLConnection connection,
+            final StreamingHttpResponseCallback<R> callback) throws Exception {
+        final R response = parseResponse(connection, callback);
+        deliver(callback, new Runnable() {
+            @Override
+            public void run() {
+                callback.onResponse(response);
+            }
+        });
+    }
+
     void postCallbackOnMainThread(final HttpResponseCallback callback, final String response) {
         if (callback == null) {
             return;
         }
 
-        mMainThreadHandler.post(new Runnable() {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.success(response);
@@ -268,7 +952,7 @@ public class HttpClient<T extends HttpClient> {
             return;
         }
 
-        mMainThreadHandler.post(new Runnable() {
+        deliver(callback, new Runnable() {
             @Override
             public void run() {
                 callback.failure(exception);
@@ -276,21 +960,369 @@ public class HttpClient<T extends HttpClient> {
         });
     }
 
+    private void deliver(HttpResponseCallback callback, Runnable runnable) {
+        Executor executor = null;
+        if (callback instanceof StreamingHttpResponseCallback) {
+            executor = ((StreamingHttpResponseCallback<?>) callback).getCallbackExecutor();
+        }
+
+        ((executor != null) ? executor : mCallbackExecutor).execute(runnable);
+    }
+
     @Nullable
     private String readStream(InputStream in, boolean gzip) throws IOException {
         if (in == null) {
             return null;
         }
 
+        in = countBytesReceived(in);
+        if (gzip) {
+            in = new GZIPInputStream(in);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int count; (count = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString(UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private InputStream countBytesReceived(InputStream in) {
+        if (getRequestTimingListener() != null) {
+            RequestTiming timing = sCurrentTiming.get();
+            if (timing != null) {
+                return timing.countBytesReceived(in);
+            }
+        }
+
+        return in;
+    }
+
+    private void drain(Reader reader) {
+        try {
+            char[] buffer = new char[1024];
+            while (reader.read(buffer) != -1) {}
+        } catch (IOException ignored) {}
+    }
+
+    private Reader openReader(InputStream in, boolean gzip) throws IOException {
+        in = countBytesReceived(in);
         if (gzip) {
             in = new GZIPInputStream(in);
         }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        for (int count; (count = in.read(buffer)) != -1; ) {
-            out.write(buffer, 0, count);
+        return new BufferedReader(new InputStreamReader(in, UTF_8));
+    }
+
+    /**
+     * A request that is executed on {@link #mThreadPool} and resubmitted after a delay when an
+     * attempt fails and its {@link RetryPolicy} allows a retry. Retries are scheduled with
+     * {@link HttpThreadPool#schedule(Runnable, long)} so they do not depend on the main thread.
+     */
+    private class HttpRequest implements Runnable, CancellableRequest.Cancellable {
+
+        private final String mMethod;
+        private final String mUrl;
+        private final byte[] mData;
+        private final HttpResponseCallback mCallback;
+        private final RetryPolicy mPolicy;
+        private final RequestPriority mPriority;
+        private final String mHost;
+        private final String mIdempotencyKey;
+
+        private long mStartTime;
+        private long mSubmitTime;
+        private int mAttempt;
+        private boolean mSynchronous;
+        private Deadline mDeadline;
+        private long mRetryDelay = NO_RETRY;
+        private volatile boolean mCancelled;
+        private volatile Future<?> mFuture;
+        private volatile ScheduledFuture<?> mRetryFuture;
+        private volatile HttpURLConnection mConnection;
+
+        HttpRequest(String method, String url, byte[] data, HttpResponseCallback callback) {
+            mMethod = method;
+            mUrl = url;
+            mData = data;
+            mCallback = callback;
+            mPolicy = getRetryPolicy(method, url);
+            mPriority = getRequestPriority(method, url);
+            mHost = getHost(url);
+
+            if (mPolicy != null && mPolicy.getIdempotencyKeyHeader() != null) {
+                mIdempotencyKey = UUID.randomUUID().toString();
+            } else {
+                mIdempotencyKey = null;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+
+            Future<?> future = mFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+
+            ScheduledFuture<?> retryFuture = mRetryFuture;
+            if (retryFuture != null) {
+                HttpThreadPool.unschedule(retryFuture);
+            }
+
+            HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            long attemptStartTime = SystemClock.elapsedRealtime();
+            if (mAttempt++ == 0) {
+                mStartTime = attemptStartTime;
+            }
+
+            RequestTimingListener timingListener = getRequestTimingListener();
+            RequestTiming timing = null;
+            if (timingListener != null) {
+                timing = new RequestTiming(mMethod, mUrl, getEndpointClass(mMethod, mUrl),
+                        mPriority, mAttempt, attemptStartTime - mSubmitTime);
+                sCurrentTiming.set(timing);
+            }
+
+            CircuitBreaker circuitBreaker = (mHost == null) ? null : mCircuitBreaker;
+            HttpURLConnection connection = null;
+            int responseCode = NO_RESPONSE;
+            boolean requestSent = false;
+            boolean completed = false;
+            long firstByteTime = 0;
+            try {
+                if (mDeadline != null && mDeadline.isExpired()) {
+                    throw new DeadlineExceededException("Deadline passed before request to " +
+                            mUrl + " could be made");
+                }
+
+                if (circuitBreaker != null && mPriority != RequestPriority.CRITICAL &&
+                        !circuitBreaker.allowRequest(mHost)) {
+                    throw new CircuitOpenException("Recent requests to " + mHost +
+                            " failed, requests are paused until it recovers");
+                }
+
+                boolean post = METHOD_POST.equals(mMethod);
+                boolean gzip = post && shouldCompressRequest(mUrl, mData);
+                connection = openConnection(mMethod, mUrl, mData, gzip,
+                        (mPolicy == null) ? null : mPolicy.getIdempotencyKeyHeader(), mIdempotencyKey,
+                        getETag(), mDeadline);
+
+                // published before connecting so cancel() can stop a slow connect or upload
+                mConnection = connection;
+                if (mCancelled) {
+                    connection.disconnect();
+                    return;
+                }
+
+                connect(connection, mMethod, gzip, timing);
+                if (post) {
+                    requestSent = true;
+                    writeBody(connection, mData, gzip, timing);
+                }
+
+                long requestSentTime = (timing == null) ? 0 : SystemClock.elapsedRealtime();
+                responseCode = connection.getResponseCode();
+                if (timing != null) {
+                    firstByteTime = SystemClock.elapsedRealtime();
+                    timing.mTimeToFirstByteMillis = firstByteTime - requestSentTime;
+                }
+
+                if (circuitBreaker != null) {
+                    if (responseCode >= HTTP_INTERNAL_ERROR) {
+                        circuitBreaker.onFailure(mHost);
+                    } else {
+                        circuitBreaker.onSuccess(mHost);
+                    }
+                }
+
+                if (mPolicy != null && mPolicy.isRetryable(responseCode, requestSent) &&
+                        retry(responseCode, null, attemptStartTime, getRetryAfterMillis(connection))) {
+                    connection.disconnect();
+                    return;
+                }
+
+                onAttempt(responseCode, null, attemptStartTime, NO_RETRY);
+                completed = true;
+                postResponse(connection, mCallback);
+            } catch (Exception e) {
+                if (responseCode == NO_RESPONSE) {
+                    if (circuitBreaker != null && !mCancelled && CircuitBreaker.isFailure(e)) {
+                        circuitBreaker.onFailure(mHost);
+                    }
+
+                    if (mPolicy != null && mPolicy.isRetryable(e, requestSent) &&
+                            retry(NO_RESPONSE, e, attemptStartTime, NO_RETRY_AFTER)) {
+                        return;
+                    }
+
+                    onAttempt(NO_RESPONSE, e, attemptStartTime, NO_RETRY);
+                }
+
+                completed = true;
+                postCallbackOnMainThread(mCallback, e);
+            } finally {
+                mConnection = null;
+
+                if (timing != null) {
+                    sCurrentTiming.remove();
+                    if (completed) {
+                        timing.mResponseCode = responseCode;
+                        if (responseCode != NO_RESPONSE) {
+                            timing.mDownloadMillis = SystemClock.elapsedRealtime() - firstByteTime;
+                            timing.mResponseCompressed =
+                                    "gzip".equals(connection.getContentEncoding());
+                        }
+
+                        timingListener.onRequestTiming(timing);
+                    }
+                }
+
+                if (connection != null) {
+                    release(connection);
+                }
+            }
+        }
+
+        @Nullable
+        private String getETag() {
+            if (METHOD_GET.equals(mMethod) && mCallback instanceof StreamingHttpResponseCallback) {
+                return ((StreamingHttpResponseCallback<?>) mCallback).getETag();
+            }
+
+            return null;
+        }
+
+        private boolean retry(int responseCode, Exception exception, long attemptStartTime,
+                long retryAfterMillis) {
+            if (mCancelled) {
+                return false;
+            }
+
+            long delay = mPolicy.getRetryDelay(mAttempt, retryAfterMillis,
+                    SystemClock.elapsedRealtime() - mStartTime);
+            if (delay == NO_RETRY ||
+                    (mDeadline != null && delay >= mDeadline.getRemainingMillis())) {
+                return false;
+            }
+
+            onAttempt(responseCode, exception, attemptStartTime, delay);
+            if (mSynchronous) {
+                mRetryDelay = delay;
+                return true;
+            }
+
+            ScheduledFuture<?> retryFuture = HttpThreadPool.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    submit(HttpRequest.this);
+                }
+            }, delay);
+            mRetryFuture = retryFuture;
+            if (mCancelled) {
+                HttpThreadPool.unschedule(retryFuture);
+            }
+
+            return true;
+        }
+
+        /**
+         * Wait for the retry of a synchronous request that {@link #run()} decided to retry.
+         *
+         * @return {@code true} if the request should be run again.
+         */
+        private boolean awaitRetry() {
+            if (mRetryDelay == NO_RETRY) {
+                return false;
+            }
+
+            SystemClock.sleep(mRetryDelay);
+            mRetryDelay = NO_RETRY;
+            return true;
+        }
+
+        private void onAttempt(int responseCode, Exception exception, long attemptStartTime,
+                long retryDelay) {
+            RequestAttemptListener listener = mRequestAttemptListener;
+            if (listener != null) {
+                listener.onRequestAttempt(mUrl, mAttempt, responseCode, exception,
+                        SystemClock.elapsedRealtime() - attemptStartTime, retryDelay);
+            }
+        }
+    }
+
+    /**
+     * Captures the result of a synchronous request, which is delivered on the request thread.
+     */
+    private static class SynchronousCallback extends StreamingHttpResponseCallback<String> {
+
+        private static final Executor DIRECT_EXECUTOR = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        };
+
+        private String mResponse;
+        private Exception mException;
+
+        @Override
+        public String decode(Reader responseBody) throws Exception {
+            return readString(responseBody);
+        }
+
+        @Override
+        public void onResponse(String response) {
+            mResponse = response;
+        }
+
+        @Override
+        public void failure(Exception exception) {
+            mException = exception;
+        }
+
+        @Override
+        public Executor getCallbackExecutor() {
+            return DIRECT_EXECUTOR;
+        }
+
+        String getResponse() throws Exception {
+            if (mException != null) {
+                throw mException;
+            }
+
+            return mResponse;
+        }
+    }
+
+    private static class MainThreadExecutor implements Executor {
+
+        private final Handler mHandler;
+
+        MainThreadExecutor(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            mHandler.post(runnable);
         }
-        return new String(out.toByteArray(), UTF_8);
     }
 }
@@ -0,0 +1,382 @@
+package com.braintreepayments.api.internal;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded thread pool used by {@link HttpClient} to execute network requests. A single default
+ * instance is shared by every {@link HttpClient} in the process unless a different pool is set
+ * with {@link HttpClient#setThreadPool(java.util.concurrent.ExecutorService)}.
+ * <p/>
+ * Idle threads are released after {@link #KEEP_ALIVE_SECONDS} and requests submitted while the
+ * queue is full are rejected with a {@link RejectedExecutionException} rather than spawning
+ * additional threads.
+ * <p/>
+ * Queued requests run in order of their {@link RequestPriority}. {@link RequestPriority#BACKGROUND}
+ * requests are held back while all but one thread are already running background requests.
+ * Cancelled requests are removed from the queue right away.
+ */
+public class HttpThreadPool extends ThreadPoolExecutor {
+
+    public static final int DEFAULT_MAX_THREADS = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 128;
+    public static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static HttpThreadPool sDefaultThreadPool;
+    private static ScheduledThreadPoolExecutor sRetryScheduler;
+
+    private static final int PRIORITY_COUNT = RequestPriority.values().length;
+
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicLongArray mQueueLatencyTotals = new AtomicLongArray(PRIORITY_COUNT);
+    private final AtomicLongArray mQueueLatencyCounts = new AtomicLongArray(PRIORITY_COUNT);
+    private final AtomicLongArray mMaxQueueLatencies = new AtomicLongArray(PRIORITY_COUNT);
+    private final Queue<PriorityTask<?>> mDeferredBackgroundTasks = new ArrayDeque<>();
+    private final int mQueueCapacity;
+    private final int mMaxBackgroundTasks;
+    private int mBackgroundTasks;
+
+    /**
+     * @param maxThreads the maximum number of threads that will be used to execute requests.
+     * @param queueCapacity the maximum number of requests that can be waiting for a thread.
+     */
+    public HttpThreadPool(int maxThreads, int queueCapacity) {
+        super(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new HttpThreadFactory("braintree-http"));
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new CountingRejectionHandler());
+
+        mQueueCapacity = queueCapacity;
+        mMaxBackgroundTasks = Math.max(1, maxThreads - 1);
+    }
+
+    /**
+     * @return the process wide {@link HttpThreadPool} shared by all {@link HttpClient}s.
+     */
+    public static synchronized HttpThreadPool getDefault() {
+        if (sDefaultThreadPool == null) {
+            sDefaultThreadPool = new HttpThreadPool(DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY);
+        }
+
+        return sDefaultThreadPool;
+    }
+
+    /**
+     * Replace the process wide {@link HttpThreadPool}. Only {@link HttpClient}s created after this
+     * call will use the new pool. The previous pool is not shut down so in flight requests can
+     * complete.
+     *
+     * @param threadPool the {@link HttpThreadPool} to share between {@link HttpClient}s.
+     */
+    public static synchronized void setDefault(HttpThreadPool threadPool) {
+        sDefaultThreadPool = threadPool;
+    }
+
+    @VisibleForTesting
+    static synchronized void resetDefault() {
+        sDefaultThreadPool = null;
+    }
+
+    /**
+     * Run a task after a delay on a background thread shared by every {@link HttpClient}, used to
+     * resubmit requests that are retried. Tasks must be short and only submit work to a pool.
+     *
+     * @param task the task to run.
+     * @param delayMillis the delay in milliseconds before the task runs.
+     * @return a {@link ScheduledFuture} to cancel the task with {@link #unschedule(ScheduledFuture)}.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return getRetryScheduler().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel a task scheduled with {@link #schedule(Runnable, long)} and remove it from the
+     * scheduler so it no longer holds on to its request.
+     */
+    static void unschedule(ScheduledFuture<?> future) {
+        if (future.cancel(false)) {
+            getRetryScheduler().purge();
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getRetryScheduler() {
+        if (sRetryScheduler == null) {
+            sRetryScheduler = new ScheduledThreadPoolExecutor(1,
+                    new HttpThreadFactory("braintree-http-retry"));
+            sRetryScheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            sRetryScheduler.allowCoreThreadTimeOut(true);
+        }
+
+        return sRetryScheduler;
+    }
+
+    /**
+     * Submit a request to run with the given {@link RequestPriority}. Requests submitted with
+     * {@link #submit(Runnable)} run with {@link RequestPriority#NORMAL}.
+     *
+     * @param task the request to run.
+     * @param priority the priority of the request.
+     * @return a {@link Future} representing the pending request.
+     */
+    public Future<?> submit(Runnable task, RequestPriority priority) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+
+        PriorityTask<Void> future = new PriorityTask<>(task, null, priority);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        PriorityTask<?> task = (command instanceof PriorityTask) ? (PriorityTask<?>) command :
+                new PriorityTask<Void>(command, null, RequestPriority.NORMAL);
+
+        // the capacity check and the enqueue happen under one lock so concurrent submits cannot
+        // queue more than the capacity
+        synchronized (mDeferredBackgroundTasks) {
+            if (!isShutdown() && getQueueDepth() >= mQueueCapacity) {
+                getRejectedExecutionHandler().rejectedExecution(task, this);
+                return;
+            }
+
+            if (task.mPriority == RequestPriority.BACKGROUND) {
+                if (mBackgroundTasks >= mMaxBackgroundTasks) {
+                    mDeferredBackgroundTasks.add(task);
+                    return;
+                }
+
+                mBackgroundTasks++;
+            }
+
+            try {
+                super.execute(task);
+            } catch (RejectedExecutionException e) {
+                onTaskFinished(task);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Runnable task) {
+        boolean removed = super.remove(task);
+        if (removed) {
+            onTaskFinished(task);
+        }
+
+        return removed;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PriorityTask<>(runnable, value, RequestPriority.NORMAL);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityTask<>(callable, RequestPriority.NORMAL);
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        super.beforeExecute(thread, runnable);
+
+        if (runnable instanceof PriorityTask && !((PriorityTask<?>) runnable).isCancelled()) {
+            PriorityTask<?> task = (PriorityTask<?>) runnable;
+            int priority = task.mPriority.ordinal();
+            long latency = SystemClock.elapsedRealtime() - task.mSubmitTime;
+
+            mQueueLatencyTotals.addAndGet(priority, latency);
+            mQueueLatencyCounts.incrementAndGet(priority);
+            for (long max; latency > (max = mMaxQueueLatencies.get(priority)); ) {
+                if (mMaxQueueLatencies.compareAndSet(priority, max, latency)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        onTaskFinished(runnable);
+    }
+
+    /**
+     * @return the number of threads currently in the pool.
+     */
+    public int getThreadCount() {
+        return getPoolSize();
+    }
+
+    /**
+     * @return the number of requests waiting for a thread.
+     */
+    public int getQueueDepth() {
+        synchronized (mDeferredBackgroundTasks) {
+            return getQueue().size() + mDeferredBackgroundTasks.size();
+        }
+    }
+
+    /**
+     * @param priority the {@link RequestPriority} of the requests.
+     * @return the average time in milliseconds requests of the given priority waited for a
+     * thread, or 0 if none have run.
+     */
+    public long getAverageQueueLatency(RequestPriority priority) {
+        long count = mQueueLatencyCounts.get(priority.ordinal());
+        return (count == 0) ? 0 : mQueueLatencyTotals.get(priority.ordinal()) / count;
+    }
+
+    /**
+     * @param priority the {@link RequestPriority} of the requests.
+     * @return the longest time in milliseconds a request of the given priority waited for a
+     * thread.
+     */
+    public long getMaxQueueLatency(RequestPriority priority) {
+        return mMaxQueueLatencies.get(priority.ordinal());
+    }
+
+    /**
+     * @return the number of requests rejected because the pool was saturated or shut down.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    private void onTaskFinished(Runnable runnable) {
+        if (!(runnable instanceof PriorityTask)) {
+            return;
+        }
+
+        // a rejected task can be both removed from the queue and rejected, only count it once
+        PriorityTask<?> task = (PriorityTask<?>) runnable;
+        if (task.mPriority != RequestPriority.BACKGROUND ||
+                !task.mFinished.compareAndSet(false, true)) {
+            return;
+        }
+
+        PriorityTask<?> next;
+        synchronized (mDeferredBackgroundTasks) {
+            next = mDeferredBackgroundTasks.poll();
+            if (next == null) {
+                mBackgroundTasks--;
+                return;
+            }
+
+            // moved to the queue under the lock so the queue depth never drops while it moves
+            try {
+                super.execute(next);
+                return;
+            } catch (RejectedExecutionException ignored) {}
+        }
+
+        next.cancel(false);
+        onTaskFinished(next);
+    }
+
+    /**
+     * Remove a cancelled task that is still waiting for a thread, so it no longer counts against
+     * the queue capacity.
+     */
+    private void onTaskCancelled(PriorityTask<?> task) {
+        synchronized (mDeferredBackgroundTasks) {
+            if (mDeferredBackgroundTasks.remove(task)) {
+                return;
+            }
+        }
+
+        remove(task);
+    }
+
+    private class PriorityTask<V> extends FutureTask<V> implements Comparable<PriorityTask<?>> {
+
+        private final RequestPriority mPriority;
+        private final long mSequence;
+        private final long mSubmitTime;
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+
+        PriorityTask(Runnable runnable, V value, RequestPriority priority) {
+            super(runnable, value);
+            mPriority = (priority == null) ? RequestPriority.NORMAL : priority;
+            mSequence = HttpThreadPool.this.mSequence.getAndIncrement();
+            mSubmitTime = SystemClock.elapsedRealtime();
+        }
+
+        PriorityTask(Callable<V> callable, RequestPriority priority) {
+            super(callable);
+            mPriority = (priority == null) ? RequestPriority.NORMAL : priority;
+            mSequence = HttpThreadPool.this.mSequence.getAndIncrement();
+            mSubmitTime = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                onTaskCancelled(this);
+            }
+
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(PriorityTask<?> other) {
+            int result = mPriority.compareTo(other.mPriority);
+            if (result == 0) {
+                result = (mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+            }
+
+            return result;
+        }
+    }
+
+    private class CountingRejectionHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            mRejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Request rejected, " + getActiveCount() +
+                    " requests in progress and " + getQueueDepth() + " requests queued");
+        }
+    }
+
+    private static class HttpThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+        HttpThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mThreadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.braintreepayments.api.internal;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections {@link HttpClient} makes requests with. Everything above the transport,
+ * including request headers, authorization, TLS configuration, response parsing and callback
+ * dispatch, only depends on the {@link HttpURLConnection} API, so a transport can be backed by
+ * any engine that exposes it, such as a multiplexing HTTP/2 client, or return in-memory
+ * connections for deterministic tests.
+ */
+public interface HttpTransport {
+
+    /**
+     * {@link HttpTransport} that uses the platform's {@link URL#openConnection()}.
+     */
+    HttpTransport DEFAULT = new HttpTransport() {
+        @Override
+        public HttpURLConnection openConnection(URL url) throws IOException {
+            return (HttpURLConnection) url.openConnection();
+        }
+    };
+
+    /**
+     * @param url the url to connect to.
+     * @return a new, unconnected {@link HttpURLConnection} for the url.
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+}
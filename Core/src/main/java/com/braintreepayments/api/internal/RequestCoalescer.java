@@ -0,0 +1,257 @@
+package com.braintreepayments.api.internal;
+
+import android.support.annotation.Nullable;
+
+import com.braintreepayments.api.interfaces.HttpResponseCallback;
+import com.braintreepayments.api.interfaces.StreamingHttpResponseCallback;
+import com.braintreepayments.api.internal.CancellableRequest.Cancellable;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges identical GET requests that are in flight at the same time, across all
+ * {@link HttpClient}s in the process, into a single network request whose result is delivered to
+ * every caller.
+ * <p/>
+ * Requests with a {@link StreamingHttpResponseCallback} are only merged with requests whose
+ * callback is of the same class, so the response is decoded once on the request thread and the
+ * decoded result can be delivered to each of them.
+ * <p/>
+ * A caller that cancels stops waiting on the shared request. The network request itself is
+ * cancelled once every caller waiting on it has cancelled.
+ */
+class RequestCoalescer {
+
+    private static final Map<String, Waiters> sInFlightRequests = new HashMap<>();
+    private static final AtomicLong sCoalescedRequestCount = new AtomicLong();
+
+    private RequestCoalescer() {}
+
+    /**
+     * @param requestKey identifies the request, requests with the same key must be identical and
+     * requests with a {@link StreamingHttpResponseCallback} must include the class and
+     * {@link StreamingHttpResponseCallback#getETag()} of the callback in the key.
+     * @param callback the callback for the new request.
+     * @param cancellableRequest the {@link CancellableRequest} the callback belongs to, or
+     * {@code null} if the caller cannot cancel and keeps the shared request alive until it
+     * completes.
+     * @return the callback to make the request with, or {@code null} if the request joined one
+     * that is already in flight and must not be made.
+     */
+    static HttpResponseCallback coalesce(String requestKey, HttpResponseCallback callback,
+            @Nullable CancellableRequest cancellableRequest) {
+        synchronized (sInFlightRequests) {
+            Waiters waiters = sInFlightRequests.get(requestKey);
+            if (waiters != null && waiters.add(callback)) {
+                sCoalescedRequestCount.incrementAndGet();
+                join(waiters, callback, cancellableRequest);
+                return null;
+            }
+
+            waiters = new Waiters(requestKey, callback);
+            sInFlightRequests.put(requestKey, waiters);
+            join(waiters, callback, cancellableRequest);
+
+            if (callback instanceof StreamingHttpResponseCallback) {
+                return newStreamingCallback(waiters, (StreamingHttpResponseCallback<?>) callback);
+            }
+
+            return new CoalescedCallback(waiters);
+        }
+    }
+
+    /**
+     * @param callback the callback returned by {@link #coalesce(String, HttpResponseCallback,
+     * CancellableRequest)}.
+     * @param request the network request made with the callback, which is cancelled once every
+     * caller waiting on it cancelled.
+     */
+    static void setRequest(HttpResponseCallback callback, Cancellable request) {
+        if (callback instanceof CoalescedCallback) {
+            ((CoalescedCallback) callback).mWaiters.setRequest(request);
+        } else if (callback instanceof CoalescedStreamingCallback) {
+            ((CoalescedStreamingCallback<?>) callback).mWaiters.setRequest(request);
+        }
+    }
+
+    /**
+     * @return the number of requests that were not made because an identical request was already
+     * in flight.
+     */
+    static long getCoalescedRequestCount() {
+        return sCoalescedRequestCount.get();
+    }
+
+    private static void join(final Waiters waiters, final HttpResponseCallback callback,
+            @Nullable CancellableRequest cancellableRequest) {
+        if (cancellableRequest != null) {
+            cancellableRequest.setRequest(new Cancellable() {
+                @Override
+                public void cancel() {
+                    waiters.remove(callback);
+                }
+            });
+        }
+    }
+
+    private static <R> CoalescedStreamingCallback<R> newStreamingCallback(Waiters waiters,
+            StreamingHttpResponseCallback<R> callback) {
+        return new CoalescedStreamingCallback<>(waiters, callback);
+    }
+
+    private static void complete(String requestKey, Waiters waiters) {
+        synchronized (sInFlightRequests) {
+            if (sInFlightRequests.get(requestKey) == waiters) {
+                sInFlightRequests.remove(requestKey);
+            }
+        }
+    }
+
+    /**
+     * The callers waiting on a shared request. Once the request completes, or every caller
+     * cancelled, no more callers can join it.
+     */
+    private static class Waiters {
+
+        private final String mRequestKey;
+        private final List<HttpResponseCallback> mCallbacks = new ArrayList<>();
+        private Cancellable mRequest;
+        private boolean mClosed;
+        private boolean mCancelled;
+
+        Waiters(String requestKey, HttpResponseCallback callback) {
+            mRequestKey = requestKey;
+            mCallbacks.add(callback);
+        }
+
+        synchronized boolean add(HttpResponseCallback callback) {
+            if (mClosed) {
+                return false;
+            }
+
+            mCallbacks.add(callback);
+            return true;
+        }
+
+        void setRequest(Cancellable request) {
+            synchronized (this) {
+                mRequest = request;
+                if (!mCancelled) {
+                    return;
+                }
+            }
+
+            request.cancel();
+        }
+
+        void remove(HttpResponseCallback callback) {
+            Cancellable request;
+            synchronized (this) {
+                if (!mCallbacks.remove(callback) || !mCallbacks.isEmpty() || mClosed) {
+                    return;
+                }
+
+                mClosed = true;
+                mCancelled = true;
+                request = mRequest;
+            }
+
+            complete(mRequestKey, this);
+            if (request != null) {
+                request.cancel();
+            }
+        }
+
+        List<HttpResponseCallback> finish() {
+            complete(mRequestKey, this);
+            synchronized (this) {
+                mClosed = true;
+                return new ArrayList<>(mCallbacks);
+            }
+        }
+    }
+
+    private static class CoalescedCallback implements HttpResponseCallback {
+
+        private final Waiters mWaiters;
+
+        CoalescedCallback(Waiters waiters) {
+            mWaiters = waiters;
+        }
+
+        @Override
+        public void success(String responseBody) {
+            for (HttpResponseCallback callback : mWaiters.finish()) {
+                if (callback != null) {
+                    callback.success(responseBody);
+                }
+            }
+        }
+
+        @Override
+        public void failure(Exception exception) {
+            for (HttpResponseCallback callback : mWaiters.finish()) {
+                if (callback != null) {
+                    callback.failure(exception);
+                }
+            }
+        }
+    }
+
+    private static class CoalescedStreamingCallback<R> extends StreamingHttpResponseCallback<R> {
+
+        private final Waiters mWaiters;
+        private final StreamingHttpResponseCallback<R> mDecoder;
+
+        CoalescedStreamingCallback(Waiters waiters, StreamingHttpResponseCallback<R> callback) {
+            mWaiters = waiters;
+            mDecoder = callback;
+        }
+
+        @Override
+        public R decode(Reader responseBody) throws Exception {
+            return mDecoder.decode(responseBody);
+        }
+
+        @Override
+        public R decode(Reader responseBody, HttpCacheHeaders cacheHeaders) throws Exception {
+            return mDecoder.decode(responseBody, cacheHeaders);
+        }
+
+        @Override
+        public String getETag() {
+            return mDecoder.getETag();
+        }
+
+        @Override
+        public R decodeNotModified(HttpCacheHeaders cacheHeaders) throws Exception {
+            return mDecoder.decodeNotModified(cacheHeaders);
+        }
+
+        @Override
+        public Executor getCallbackExecutor() {
+            return mDecoder.getCallbackExecutor();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onResponse(R response) {
+            for (HttpResponseCallback callback : mWaiters.finish()) {
+                ((StreamingHttpResponseCallback<R>) callback).onResponse(response);
+            }
+        }
+
+        @Override
+        public void failure(Exception exception) {
+            for (HttpResponseCallback callback : mWaiters.finish()) {
+                callback.failure(exception);
+            }
+        }
+    }
+}
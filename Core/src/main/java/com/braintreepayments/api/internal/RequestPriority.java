@@ -0,0 +1,26 @@
+package com.braintreepayments.api.internal;
+
+/**
+ * The order in which an {@link HttpThreadPool} runs queued requests. Requests of the same priority
+ * run in the order they were submitted.
+ */
+public enum RequestPriority {
+
+    /**
+     * Requests a customer is waiting on to complete checkout, such as fetching configuration or
+     * tokenizing a payment method. Run before any other queued request.
+     */
+    CRITICAL,
+
+    /**
+     * The priority of requests without a priority set.
+     */
+    NORMAL,
+
+    /**
+     * Telemetry that can be delayed, such as analytics and FPTI events. Run only when no other
+     * requests are queued and never on every thread of the pool at once, so a thread is left for
+     * more important requests.
+     */
+    BACKGROUND
+}
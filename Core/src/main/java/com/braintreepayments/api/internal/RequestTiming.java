@@ -0,0 +1,173 @@
+package com.braintreepayments.api.internal;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Where the time of a single request made by {@link HttpClient} was spent. Durations are in
+ * milliseconds and describe the final attempt of the request, durations of phases that were not
+ * reached are 0.
+ */
+public class RequestTiming {
+
+    public static final String ENDPOINT_CONFIGURATION = "configuration";
+    public static final String ENDPOINT_TOKENIZE = "tokenize";
+    public static final String ENDPOINT_THREE_D_SECURE_LOOKUP = "three_d_secure_lookup";
+    public static final String ENDPOINT_ANALYTICS = "analytics";
+    public static final String ENDPOINT_FPTI = "fpti";
+    public static final String ENDPOINT_OTHER = "other";
+
+    private final String mMethod;
+    private final String mUrl;
+    private final String mEndpointClass;
+    private final RequestPriority mPriority;
+    private final int mAttempts;
+    private final long mQueueWaitMillis;
+
+    long mConnectMillis;
+    long mTimeToFirstByteMillis;
+    long mDownloadMillis;
+    long mBytesSent;
+    long mBytesReceived;
+    boolean mRequestCompressed;
+    boolean mResponseCompressed;
+    int mResponseCode = -1;
+
+    RequestTiming(String method, String url, String endpointClass, RequestPriority priority,
+            int attempts, long queueWaitMillis) {
+        mMethod = method;
+        mUrl = url;
+        mEndpointClass = endpointClass;
+        mPriority = priority;
+        mAttempts = attempts;
+        mQueueWaitMillis = queueWaitMillis;
+    }
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return the kind of endpoint requested, one of the {@code ENDPOINT_} constants.
+     */
+    public String getEndpointClass() {
+        return mEndpointClass;
+    }
+
+    /**
+     * @return the {@link RequestPriority} the request ran with.
+     */
+    public RequestPriority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return the number of attempts made, including retries.
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return the time the request waited for a thread in the thread pool.
+     */
+    public long getQueueWaitMillis() {
+        return mQueueWaitMillis;
+    }
+
+    /**
+     * @return the time taken to connect, including the TLS handshake. Close to 0 when a pooled
+     * connection was reused.
+     */
+    public long getConnectMillis() {
+        return mConnectMillis;
+    }
+
+    /**
+     * @return the time from the request being sent to the response headers being received.
+     */
+    public long getTimeToFirstByteMillis() {
+        return mTimeToFirstByteMillis;
+    }
+
+    /**
+     * @return the time taken to read and decode the response body.
+     */
+    public long getDownloadMillis() {
+        return mDownloadMillis;
+    }
+
+    /**
+     * @return the number of request body bytes written to the network.
+     */
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * @return the number of response body bytes read from the network.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    public boolean isRequestCompressed() {
+        return mRequestCompressed;
+    }
+
+    public boolean isResponseCompressed() {
+        return mResponseCompressed;
+    }
+
+    /**
+     * @return the HTTP status code of the response, or -1 if no response was received.
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    OutputStream countBytesSent(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                mBytesSent++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                mBytesSent += len;
+            }
+        };
+    }
+
+    InputStream countBytesReceived(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b != -1) {
+                    mBytesReceived++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = in.read(b, off, len);
+                if (count > 0) {
+                    mBytesReceived += count;
+                }
+                return count;
+            }
+        };
+    }
+}
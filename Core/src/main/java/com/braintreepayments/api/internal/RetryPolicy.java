@@ -0,0 +1,191 @@
+package com.braintreepayments.api.internal;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.UnknownServiceException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Describes when and how often {@link HttpClient} retries a failed request. Requests are retried
+ * when no response was received because of a network error, or when the server responded with
+ * 408, 429, 500, 502, 503 or 504.
+ * <p/>
+ * The delay before each retry grows exponentially from the initial backoff up to the maximum
+ * backoff and is randomly reduced by up to the jitter fraction so clients do not retry in lock
+ * step. A {@code Retry-After} header from the server is used as the minimum delay. A request is
+ * not retried if the retry would start after the deadline.
+ * <p/>
+ * For endpoints that do not deduplicate requests, {@link #setRetrySentRequests(boolean)} limits
+ * retries of POST requests to attempts the server cannot have processed.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    public static final float DEFAULT_JITTER = 0.5f;
+    public static final long DEFAULT_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Random sRandom = new Random();
+
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mInitialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private float mJitter = DEFAULT_JITTER;
+    private long mDeadlineMillis = DEFAULT_DEADLINE_MILLIS;
+    private boolean mHonorRetryAfter = true;
+    private String mIdempotencyKeyHeader;
+    private boolean mRetrySentRequests = true;
+
+    /**
+     * @param maxAttempts the maximum number of times a request is made, including the first
+     *        attempt.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param initialBackoffMillis the delay in milliseconds before the first retry. The delay
+     *        doubles for each following retry.
+     * @param maxBackoffMillis the maximum delay in milliseconds between attempts.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * @param jitter the fraction, between 0 and 1, by which each delay may be randomly reduced.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setJitter(float jitter) {
+        mJitter = Math.max(0, Math.min(1, jitter));
+        return this;
+    }
+
+    /**
+     * @param deadlineMillis the time in milliseconds from the first attempt after which a request
+     *        will no longer be retried.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setDeadline(long deadlineMillis) {
+        mDeadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * @param honorRetryAfter {@code true} to wait at least as long as the server's
+     *        {@code Retry-After} header before retrying. Defaults to {@code true}.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setHonorRetryAfter(boolean honorRetryAfter) {
+        mHonorRetryAfter = honorRetryAfter;
+        return this;
+    }
+
+    /**
+     * Send a key that is unique to each request, and identical for every attempt of the request,
+     * in the given header of POST requests so the server can safely deduplicate retries.
+     *
+     * @param header the name of the header, or {@code null} to not send an idempotency key.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setIdempotencyKeyHeader(String header) {
+        mIdempotencyKeyHeader = header;
+        return this;
+    }
+
+    /**
+     * @param retrySentRequests {@code false} to only retry POST requests that failed before their
+     *        body was sent, or that the server refused with 429 or 503, so a request the server
+     *        may have processed is never sent twice. GET requests are retried as usual. Defaults
+     *        to {@code true}.
+     * @return {@link RetryPolicy} for method chaining.
+     */
+    public RetryPolicy setRetrySentRequests(boolean retrySentRequests) {
+        mRetrySentRequests = retrySentRequests;
+        return this;
+    }
+
+    String getIdempotencyKeyHeader() {
+        return mIdempotencyKeyHeader;
+    }
+
+    boolean isRetryable(int responseCode) {
+        switch (responseCode) {
+            case 408: case 429: case 500: case 502: case 503: case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param responseCode the response code of the attempt.
+     * @param requestSent {@code true} if the body of a POST request was sent.
+     */
+    boolean isRetryable(int responseCode, boolean requestSent) {
+        if (requestSent && !mRetrySentRequests) {
+            return responseCode == 429 || responseCode == 503;
+        }
+
+        return isRetryable(responseCode);
+    }
+
+    /**
+     * @param exception the exception the attempt failed with.
+     * @param requestSent {@code true} if sending the body of a POST request had started.
+     */
+    boolean isRetryable(Exception exception, boolean requestSent) {
+        return (!requestSent || mRetrySentRequests) && isRetryable(exception);
+    }
+
+    boolean isRetryable(Exception exception) {
+        return exception instanceof IOException &&
+                !(exception instanceof MalformedURLException) &&
+                !(exception instanceof ProtocolException) &&
+                !(exception instanceof UnknownServiceException) &&
+                !(exception instanceof SSLHandshakeException) &&
+                !(exception instanceof SSLPeerUnverifiedException);
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting at 1.
+     * @param retryAfterMillis the delay requested by the server, or -1 if none was requested.
+     * @param elapsedMillis the time in milliseconds since the first attempt started.
+     * @return the delay in milliseconds before the next attempt, or -1 if the request should not
+     * be retried.
+     */
+    long getRetryDelay(int attempt, long retryAfterMillis, long elapsedMillis) {
+        if (attempt >= mMaxAttempts) {
+            return -1;
+        }
+
+        long backoff = mInitialBackoffMillis;
+        for (int i = 1; i < attempt && backoff < mMaxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, mMaxBackoffMillis);
+
+        long delay = backoff - (long) (backoff * mJitter * sRandom.nextFloat());
+        if (mHonorRetryAfter && retryAfterMillis > delay) {
+            delay = retryAfterMillis;
+        }
+
+        if (elapsedMillis + delay > mDeadlineMillis) {
+            return -1;
+        }
+
+        return delay;
+    }
+}
@@ -1,65 +1,71 @@
 package com.braintreepayments.api.internal;
 
+import android.support.annotation.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.security.KeyManagementException;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
-import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 
+/**
+ * {@link SSLSocketFactory} that enables TLS on created sockets. {@link SSLContext}s are shared
+ * process wide, one for the system trust store and one per pinned certificate bundle, so every
+ * {@link TLSSocketFactory} trusting the same certificates shares a single TLS session cache and
+ * connections made by new {@link HttpClient}s can resume sessions negotiated by earlier ones.
+ */
 public class TLSSocketFactory extends SSLSocketFactory {
 
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private static final ByteBuffer SYSTEM_TRUST_STORE = ByteBuffer.allocate(0);
+    private static final Map<ByteBuffer, SSLContext> sSSLContexts = new HashMap<>();
+    private static final AtomicLong sFullHandshakeCount = new AtomicLong();
+    private static final AtomicLong sResumedHandshakeCount = new AtomicLong();
+    private static int sSessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+    private static int sSessionTimeoutSeconds = DEFAULT_SESSION_TIMEOUT_SECONDS;
+
+    private final SSLContext mSSLContext;
     private SSLSocketFactory mInternalSSLSocketFactory;
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mSocketCount = new AtomicLong();
 
     public TLSSocketFactory() throws SSLException {
-        try {
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, null, null); // use system security providers
-            mInternalSSLSocketFactory = sslContext.getSocketFactory();
-        } catch (NoSuchAlgorithmException | KeyManagementException e) {
-            throw new SSLException(e.getMessage());
-        }
+        mSSLContext = getSSLContext(SYSTEM_TRUST_STORE);
+        mInternalSSLSocketFactory = mSSLContext.getSocketFactory();
     }
 
     /**
      * @see <a href="http://developer.android.com/training/articles/security-ssl.html#UnknownCa">Android Documentation</a>
      */
     public TLSSocketFactory(InputStream certificateStream) throws SSLException {
+        ByteBuffer certificates;
         try {
-            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-            keyStore.load(null, null);
-
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-
-            Collection<? extends Certificate> certificates =
-                    cf.generateCertificates(certificateStream);
-            for (Certificate cert : certificates) {
-                if (cert instanceof X509Certificate) {
-                    String subject = ((X509Certificate) cert).getSubjectDN().getName();
-                    keyStore.setCertificateEntry(subject, cert);
-                }
-            }
-
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(
-                    TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init(keyStore);
-
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, tmf.getTrustManagers(), null);
-            mInternalSSLSocketFactory = sslContext.getSocketFactory();
+            certificates = ByteBuffer.wrap(readCertificates(certificateStream));
         } catch (Exception e) {
             throw new SSLException(e.getMessage());
         } finally {
@@ -67,6 +73,85 @@ public class TLSSocketFactory extends SSLSocketFactory {
                 certificateStream.close();
             } catch (IOException | NullPointerException ignored) {}
         }
+
+        mSSLContext = getSSLContext(certificates);
+        mInternalSSLSocketFactory = mSSLContext.getSocketFactory();
+    }
+
+    /**
+     * Set the maximum number of TLS sessions cached for resumption by each shared
+     * {@link SSLContext}. Defaults to {@link #DEFAULT_SESSION_CACHE_SIZE}.
+     *
+     * @param sessionCacheSize the number of sessions to cache, 0 for no limit.
+     */
+    public static synchronized void setSessionCacheSize(int sessionCacheSize) {
+        sSessionCacheSize = sessionCacheSize;
+        for (SSLContext sslContext : sSSLContexts.values()) {
+            configureSessionContext(sslContext);
+        }
+    }
+
+    /**
+     * Set how long cached TLS sessions can be resumed. Defaults to
+     * {@link #DEFAULT_SESSION_TIMEOUT_SECONDS}.
+     *
+     * @param sessionTimeoutSeconds the session timeout in seconds, 0 for no limit.
+     */
+    public static synchronized void setSessionTimeout(int sessionTimeoutSeconds) {
+        sSessionTimeoutSeconds = sessionTimeoutSeconds;
+        for (SSLContext sslContext : sSSLContexts.values()) {
+            configureSessionContext(sslContext);
+        }
+    }
+
+    /**
+     * @return the number of TLS handshakes that negotiated a new session.
+     */
+    public static long getFullHandshakeCount() {
+        return sFullHandshakeCount.get();
+    }
+
+    /**
+     * @return the number of TLS handshakes that resumed a cached session.
+     */
+    public static long getResumedHandshakeCount() {
+        return sResumedHandshakeCount.get();
+    }
+
+    /**
+     * @return the number of requests made using this {@link TLSSocketFactory}.
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the number of sockets created by this {@link TLSSocketFactory}.
+     */
+    public long getCreatedSocketCount() {
+        return mSocketCount.get();
+    }
+
+    /**
+     * @return the fraction of requests that reused a pooled connection instead of creating a new
+     * socket.
+     */
+    public float getConnectionReuseRate() {
+        long requests = getRequestCount();
+        if (requests == 0) {
+            return 0;
+        }
+
+        return Math.max(0, requests - getCreatedSocketCount()) / (float) requests;
+    }
+
+    @VisibleForTesting
+    SSLContext getSSLContext() {
+        return mSSLContext;
+    }
+
+    void onRequest() {
+        mRequestCount.incrementAndGet();
     }
 
     @Override
@@ -110,7 +195,12 @@ public class TLSSocketFactory extends SSLSocketFactory {
     }
 
     private Socket enableTLSOnSocket(Socket socket) {
+        mSocketCount.incrementAndGet();
+
         if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(
+                    new HandshakeCounter(System.currentTimeMillis()));
+
             ArrayList<String> supportedProtocols =
                     new ArrayList<>(Arrays.asList(((SSLSocket) socket).getSupportedProtocols()));
             supportedProtocols.retainAll(Arrays.asList("TLSv1.2", "TLSv1.1", "TLSv1"));
@@ -121,4 +211,88 @@ public class TLSSocketFactory extends SSLSocketFactory {
 
         return socket;
     }
+
+    private static synchronized SSLContext getSSLContext(ByteBuffer certificates)
+            throws SSLException {
+        SSLContext sslContext = sSSLContexts.get(certificates);
+        if (sslContext == null) {
+            try {
+                sslContext = SSLContext.getInstance("TLS");
+                if (certificates == SYSTEM_TRUST_STORE) {
+                    sslContext.init(null, null, null); // use system security providers
+                } else {
+                    sslContext.init(null, getTrustManagers(certificates), null);
+                }
+            } catch (SSLException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SSLException(e.getMessage());
+            }
+
+            configureSessionContext(sslContext);
+            sSSLContexts.put(certificates, sslContext);
+        }
+
+        return sslContext;
+    }
+
+    private static void configureSessionContext(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sSessionCacheSize);
+            sessionContext.setSessionTimeout(sSessionTimeoutSeconds);
+        }
+    }
+
+    private static TrustManager[] getTrustManagers(ByteBuffer certificates) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+
+        Collection<? extends Certificate> certs = cf.generateCertificates(
+                new ByteArrayInputStream(certificates.array()));
+        for (Certificate cert : certs) {
+            if (cert instanceof X509Certificate) {
+                String subject = ((X509Certificate) cert).getSubjectDN().getName();
+                keyStore.setCertificateEntry(subject, cert);
+            }
+        }
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        return tmf.getTrustManagers();
+    }
+
+    private static byte[] readCertificates(InputStream certificateStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int count; (count = certificateStream.read(buffer)) != -1; ) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Counts a handshake as resumed when its session was created before the socket was.
+     */
+    private static class HandshakeCounter implements HandshakeCompletedListener {
+
+        private final long mSocketCreatedAt;
+
+        HandshakeCounter(long socketCreatedAt) {
+            mSocketCreatedAt = socketCreatedAt;
+        }
+
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            if (event.getSession().getCreationTime() < mSocketCreatedAt) {
+                sResumedHandshakeCount.incrementAndGet();
+            } else {
+                sFullHandshakeCount.incrementAndGet();
+            }
+        }
+    }
 }
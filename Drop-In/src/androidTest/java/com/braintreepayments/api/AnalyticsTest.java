@@ -42,10 +42,9 @@ import static junit.framework.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.spy;
-import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
 @LargeTest
@@ -252,9 +251,9 @@ public class AnalyticsTest extends BraintreePaymentActivityTestRunner {
 
     private void verifyAnalyticsEvent(String event) {
         AnalyticsManager.flushEvents(mFragment);
-        verify(mFragment.getHttpClient(), times(1)).post(
+        verify(mFragment.getHttpClient(), timeout(5000)).post(
                 eq(mFragment.getConfiguration().getAnalytics().getUrl()),
                 contains(event),
-                isNull(HttpResponseCallback.class));
+                any(HttpResponseCallback.class));
     }
 }
@@ -603,6 +603,7 @@ public class PaymentButtonTest {
         Authorization clientToken = Authorization.fromString(stringFromFixture("client_token.json"));
 
         writeMockConfiguration(clientToken.getConfigUrl(), configuration);
+        ConfigurationCache.getInstance().clearMemoryCache();
         BraintreeFragment fragment = spy(BraintreeFragment.newInstance(mActivity, clientToken.toString()));
         doNothing().when(fragment).startActivity(any(Intent.class));
         doNothing().when(fragment).startActivityForResult(any(Intent.class), anyInt());
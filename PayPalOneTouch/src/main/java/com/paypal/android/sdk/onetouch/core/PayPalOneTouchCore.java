@@ -170,12 +170,22 @@ public class PayPalOneTouchCore {
         sConfigManager.useHardcodedConfig(useHardcodedConfig);
     }
 
+    /**
+     * Create the One Touch configuration and tracking services and start refreshing the One Touch
+     * configuration ahead of the first PayPal request. Safe to call from any thread.
+     *
+     * @param context
+     */
+    public static void prefetch(Context context) {
+        initService(context);
+    }
+
     public static FptiManager getFptiManager(Context context) {
         initService(context);
         return sFptiManager;
     }
 
-    private static void initService(Context context) {
+    private static synchronized void initService(Context context) {
         if (sConfigManager == null || sFptiManager == null) {
             PayPalHttpClient httpClient = new PayPalHttpClient()
                     .setBaseUrl(EnvironmentManager.LIVE_API_M_ENDPOINT);
@@ -187,7 +197,7 @@ public class PayPalOneTouchCore {
         sConfigManager.refreshConfiguration();
     }
 
-    private static ContextInspector getContextInspector(Context context) {
+    private static synchronized ContextInspector getContextInspector(Context context) {
         if (null == sContextInspector) {
             sContextInspector = new ContextInspector(context);
         }
@@ -3,6 +3,9 @@ package com.paypal.android.sdk.onetouch.core.fpti;
 import android.os.Handler;
 import android.support.annotation.VisibleForTesting;
 
+import com.braintreepayments.api.internal.RequestPriority;
+import com.braintreepayments.api.internal.RequestTiming;
+import com.braintreepayments.api.internal.RetryPolicy;
 import com.paypal.android.sdk.onetouch.core.BuildConfig;
 import com.paypal.android.sdk.onetouch.core.base.ContextInspector;
 import com.paypal.android.sdk.onetouch.core.base.DeviceInspector;
@@ -22,6 +25,9 @@ import java.util.Random;
 
 public class FptiManager {
 
+    private static final String TRACKING_EVENTS_PATH = "tracking/events";
+    private static final int REQUEST_COMPRESSION_MINIMUM_SIZE = 1024;
+
     private final ContextInspector mContextInspector;
     private final PayPalHttpClient mHttpClient;
     private FptiToken mToken;
@@ -29,6 +35,11 @@ public class FptiManager {
     public FptiManager(ContextInspector contextInspector, PayPalHttpClient httpClient) {
         mContextInspector = contextInspector;
         mHttpClient = httpClient;
+        mHttpClient.enableRequestCompression(TRACKING_EVENTS_PATH, REQUEST_COMPRESSION_MINIMUM_SIZE);
+        mHttpClient.setRetryPolicy(TRACKING_EVENTS_PATH,
+                new RetryPolicy().setRetrySentRequests(false));
+        mHttpClient.setEndpointClass(TRACKING_EVENTS_PATH, RequestTiming.ENDPOINT_FPTI);
+        mHttpClient.setRequestPriority(TRACKING_EVENTS_PATH, RequestPriority.BACKGROUND);
     }
 
     public void trackFpti(TrackingPoint point, String environmentName,
@@ -100,7 +111,7 @@ public class FptiManager {
         new Handler().postDelayed(new Runnable() {
             @Override
             public void run() {
-                mHttpClient.post("tracking/events", data, null);
+                mHttpClient.post(TRACKING_EVENTS_PATH, data, null);
             }
         }, (10 + new Random().nextInt(190)) * 1000);
     }
@@ -2,7 +2,9 @@ package com.paypal.android.sdk.onetouch.core.network;
 
 import android.support.annotation.VisibleForTesting;
 
+import com.braintreepayments.api.internal.CircuitBreaker;
 import com.braintreepayments.api.internal.HttpClient;
+import com.braintreepayments.api.internal.RetryPolicy;
 import com.braintreepayments.api.internal.TLSSocketFactory;
 
 import java.io.IOException;
@@ -16,6 +18,9 @@ public class PayPalHttpClient extends HttpClient<PayPalHttpClient> {
     public PayPalHttpClient() {
         setUserAgent(OtcEnvironment.getUserAgent());
         setConnectTimeout((int) TimeUnit.SECONDS.toMillis(90));
+        setReuseConnections(true);
+        setRetryPolicy(new RetryPolicy());
+        setCircuitBreaker(CircuitBreaker.getDefault());
 
         try {
             setSSLSocketFactory(new TLSSocketFactory(PayPalCertificate.getCertInputStream()));